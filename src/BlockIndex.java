@@ -0,0 +1,628 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ *   An index built block by block (single-pass in-memory indexing), for
+ *   collections that do not fit in memory.
+ *
+ *   Postings are collected in memory, as in a HashedIndex, until their
+ *   estimated size exceeds the memory budget. The block is then written
+ *   to disk as a run, with the terms in sorted order, and a new block is
+ *   started. When indexing is finished (see finishIndexing), all runs are
+ *   merged into one postings file by a k-way merge on the terms, and only
+ *   the term dictionary (term and file offset of its postings) is kept
+ *   in memory. Searches read the postings file, so they do not see
+ *   documents added since the last merge.
+ *
+ *   Blocks are only written between documents, and docIDs are expected
+ *   to increase, so the postings of a term in a later run always come
+ *   after those in an earlier run. Documents can be added after a merge;
+ *   they are merged into the postings file when indexing is finished
+ *   again.
+ *
+ *   A run and the postings file have the same format: the number of
+ *   terms, then for each term in sorted order, the term (as by
+ *   writeUTF), then for each posting its frequency, its docID and its
+ *   positions, then a frequency of 0, and last the largest tf / sqrt(
+ *   document length) of the postings, as a double, which ranked search
+ *   uses as a bound (see RankedSearch).
+ *   Postings of deleted documents are left out when the runs are merged,
+ *   and so are terms that have no other postings.
+ *
+ *   The runs of an index called NAME are NAME.0.run, NAME.1.run and so
+ *   on, and its postings files NAME.N.postings, in ./index. NAME.block
+ *   holds the document table of the index, the term dictionary and the
+ *   names of the files. It is written by cleanup(), after which the
+ *   index can be opened again by its name.
+ */
+public class BlockIndex implements Index {
+
+	/** The directory where runs and postings are written. */
+	private static final String path = "./index";
+
+	/** Estimated heap size of a term in the block, apart from its characters. */
+	private static final int TERM_BYTES = 120;
+
+	/** Estimated heap size of a posting in the block, apart from its positions. */
+	private static final int ENTRY_BYTES = 18;
+
+	/** Estimated heap size of a position in the block. */
+	private static final int POSITION_BYTES = 6;
+
+	/** Flush the block when its estimated size exceeds this many bytes. */
+	private final long memoryBudget;
+
+	/** The name of the index, which its files start with. */
+	private String name;
+
+	/** The number of the next run or postings file to be written. */
+	private int nextFile = 0;
+
+	/** The block being built, by the term IDs of blockTerms. */
+	private PostingsList[] block = new PostingsList[1024];
+	private TermDictionary blockTerms = new TermDictionary();
+
+	/** Estimated heap size of the block in bytes. */
+	private long blockBytes = 0;
+
+	/** The docID of the document being indexed. */
+	private int currentDocID = -1;
+
+	/** Runs not yet merged, in the order they were written. */
+	private List<File> runs = new ArrayList<File>();
+
+	/** The merged postings file, or null if nothing has been merged. */
+	private File postingsFile;
+	private RandomAccessFile postings;
+
+	/**
+	 *  The terms of the postings file in sorted order, and the file
+	 *  offset of each term's record. offsets[terms.size()] is the length
+	 *  of the file.
+	 */
+	private ArrayList<String> terms = new ArrayList<String>();
+	private long[] offsets = new long[1];
+
+	private PageRank pageRank;
+
+	/**
+	 *  Creates a new index that keeps at most about memoryBudget bytes
+	 *  of postings in memory while it is being built, and invents a name
+	 *  for it.
+	 */
+	public BlockIndex(long memoryBudget) {
+		this(generateName(), memoryBudget);
+	}
+
+	/**
+	 *  Opens the index called name, or creates a new index by that name
+	 *  if there is none. The documents of the index are added to docs.
+	 *  At most about memoryBudget bytes of postings are kept in memory
+	 *  while documents are added.
+	 */
+	public BlockIndex(String name, long memoryBudget) {
+		this.name = name;
+		this.memoryBudget = memoryBudget;
+		new File(path).mkdirs();
+		File manifest = manifest();
+		if (!manifest.exists())
+			return;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+			try {
+				docs.addAll((DocumentTable) in.readObject());
+				readFiles(in);
+			}
+			finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Couldn't open index " + name, e);
+		}
+	}
+
+	/** Invents a name that no saved index in the directory has. */
+	private static String generateName() {
+		long s = System.currentTimeMillis();
+		while (new File(path, s + ".block").exists())
+			s++;
+		return "" + s;
+	}
+
+	/** The file with the document table, term dictionary and file names. */
+	private File manifest() {
+		return new File(path, name + ".block");
+	}
+
+	/**
+	 *  Inserts this token in the index. The block is written to disk
+	 *  when a new document starts and the block is over the budget.
+	 */
+	public void insert(CharSequence token, int docID, int offset) {
+		if (docID != currentDocID) {
+			if (blockBytes > memoryBudget)
+				flush();
+			currentDocID = docID;
+		}
+
+		int termID = blockTerms.add(token);
+		if (termID == block.length)
+			block = Arrays.copyOf(block, block.length * 2);
+		PostingsList list = block[termID];
+		if (list == null) {
+			list = new PostingsList();
+			block[termID] = list;
+			blockBytes += TERM_BYTES + 2 * token.length();
+		}
+		int entries = list.size;
+		list.add(docID, offset);
+		blockBytes += POSITION_BYTES;
+		if (list.size > entries)
+			blockBytes += ENTRY_BYTES;
+	}
+
+	/**
+	 *  Returns the postings for a specific term in the postings file, or
+	 *  an empty list if the term is not in it.
+	 */
+	public PostingsList getPostings(String token) {
+		int t = Collections.binarySearch(terms, token);
+		if (t < 0)
+			return new PostingsList();
+		try {
+			byte[] buf = new byte[(int) (offsets[t + 1] - offsets[t])];
+			postings.seek(offsets[t]);
+			postings.readFully(buf);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+			in.readUTF();
+			PostingsList list = PostingsList.readFrom(in);
+			list.maxTfNorm = in.readDouble();
+			return list;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new PostingsList();
+		}
+	}
+
+	/**
+	 *  Searches the index for postings matching the query in @code{searchterms}.
+	 */
+	public PostingsList search(LinkedList<String> searchterms, int queryType) {
+		return search(searchterms, queryType, Integer.MAX_VALUE);
+	}
+
+	/**
+	 *  Searches the index for postings matching the query in @code{searchterms}.
+	 *  Ranked queries only return the k best documents.
+	 */
+	public PostingsList search(LinkedList<String> searchterms, int queryType, int k) {
+		PostingsList result;
+		if (queryType == Index.RANKED_QUERY)
+			result = RankedSearch.search(this, pageRank, searchterms, k);
+		else if (queryType == Index.PHRASE_QUERY)
+			result = QueryPlanner.phrase(this, searchterms);
+		else if (queryType == Index.UNION_QUERY)
+			result = QueryPlanner.union(this, searchterms);
+		else
+			result = QueryPlanner.intersect(this, searchterms);
+		return (result == null) ? new PostingsList() : result;
+	}
+
+	public void setPageRank(PageRank p) {
+		this.pageRank = p;
+	}
+
+	/**
+	 *  Rewrites the postings file without the postings of deleted
+	 *  documents.
+	 */
+	public void compact() {
+		try {
+			merge(true);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 *  Merges the runs and the block into the postings file, so that
+	 *  searches find everything inserted so far.
+	 */
+	public void finishIndexing() {
+		try {
+			merge();
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't merge runs", e);
+		}
+	}
+
+	/**
+	 *  Writes the block to disk as a run, and then the name of the index,
+	 *  the term dictionary of the postings file and the names of the
+	 *  postings file and the runs. The files themselves stay where they
+	 *  are; they are not merged (and deleted) before indexing is finished.
+	 */
+	public void writeCheckpoint(ObjectOutputStream out) throws IOException {
+		flush();
+		out.writeUTF(name);
+		writeFiles(out);
+	}
+
+	/**
+	 *  Takes over the postings file and runs of a checkpoint. Runs and
+	 *  postings files of the index that are not part of it were written
+	 *  after it, and are deleted.
+	 */
+	public void readCheckpoint(ObjectInputStream in) throws IOException {
+		name = in.readUTF();
+		readFiles(in);
+	}
+
+	/**
+	 *  Merges the runs and the block into the postings file, and saves
+	 *  the document table, the term dictionary and the name of the
+	 *  postings file, so that the index can be opened again.
+	 */
+	public void cleanup() {
+		try {
+			merge();
+			save();
+			System.err.println("Saved index " + name);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  Writes the number of the next file, the term dictionary of the
+	 *  postings file, and the names of the postings file and the runs.
+	 */
+	private void writeFiles(ObjectOutputStream out) throws IOException {
+		out.writeInt(nextFile);
+		out.writeInt(terms.size());
+		for (int t = 0; t < terms.size(); t++) {
+			out.writeUTF(terms.get(t));
+			out.writeLong(offsets[t]);
+		}
+		out.writeLong(offsets[terms.size()]);
+		out.writeUTF((postingsFile == null) ? "" : postingsFile.getName());
+		out.writeInt(runs.size());
+		for (File run : runs)
+			out.writeUTF(run.getName());
+	}
+
+	/**
+	 *  Opens the files written by writeFiles, and deletes the other runs
+	 *  and postings files of the index.
+	 */
+	private void readFiles(ObjectInputStream in) throws IOException {
+		nextFile = in.readInt();
+		int n = in.readInt();
+		terms = new ArrayList<String>(n);
+		offsets = new long[n + 1];
+		for (int t = 0; t < n; t++) {
+			terms.add(in.readUTF());
+			offsets[t] = in.readLong();
+		}
+		offsets[n] = in.readLong();
+		Set<String> names = new HashSet<String>();
+		String file = in.readUTF();
+		if (!file.isEmpty()) {
+			postingsFile = new File(path, file);
+			postings = new RandomAccessFile(postingsFile, "r");
+			names.add(file);
+		}
+		int numRuns = in.readInt();
+		for (int i = 0; i < numRuns; i++) {
+			file = in.readUTF();
+			File run = new File(path, file);
+			if (!run.exists())
+				throw new IOException("Missing run " + run);
+			runs.add(run);
+			names.add(file);
+		}
+		File[] fs = new File(path).listFiles();
+		if (fs != null) {
+			for (File f : fs) {
+				String s = f.getName();
+				if (s.startsWith(name + ".") && (s.endsWith(".run") || s.endsWith(".postings")) && !names.contains(s))
+					f.delete();
+			}
+		}
+	}
+
+	/**
+	 *  Writes the document table, the term dictionary and the file names
+	 *  to the manifest. It is written to a temporary file first, so that
+	 *  the manifest is always complete.
+	 */
+	private void save() throws IOException {
+		File manifest = manifest();
+		File tmp = new File(path, manifest.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos));
+			out.writeObject(docs);
+			writeFiles(out);
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		Files.move(tmp.toPath(), manifest.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** A new file for a run or postings file, with the given suffix. */
+	private File newFile(String suffix) {
+		return new File(path, name + "." + nextFile++ + suffix);
+	}
+
+	/** Writes the block to disk as a run, and starts a new block. */
+	private void flush() {
+		int size = blockTerms.size();
+		if (size == 0)
+			return;
+		String[] sorted = new String[size];
+		for (int t = 0; t < size; t++)
+			sorted[t] = blockTerms.term(t);
+		Arrays.sort(sorted);
+		try {
+			File run = newFile(".run");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+			out.writeInt(size);
+			for (String term : sorted) {
+				PostingsList list = block[blockTerms.get(term)];
+				out.writeUTF(term);
+				list.writeTo(out);
+				out.writeDouble(list.maxTfNorm());
+			}
+			out.close();
+			runs.add(run);
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't write block to disk", e);
+		}
+		Arrays.fill(block, 0, size, null);
+		blockTerms.clear();
+		blockBytes = 0;
+	}
+
+	/**
+	 *  Merges the postings file, all runs and the block into a new
+	 *  postings file, if anything has been added since the last merge.
+	 */
+	private void merge() throws IOException {
+		merge(false);
+	}
+
+	/**
+	 *  Merges the postings file, all runs and the block into a new
+	 *  postings file. Unless force is set, nothing is done if there is
+	 *  nothing new to merge. If the index has been saved, the manifest
+	 *  is updated before the old files are deleted.
+	 */
+	private void merge(boolean force) throws IOException {
+		flush();
+		if (runs.isEmpty() && (!force || postingsFile == null))
+			return;
+
+		// The postings file holds the oldest documents, so it goes first
+		List<File> inputs = new ArrayList<File>();
+		if (postingsFile != null) {
+			postings.close();
+			inputs.add(postingsFile);
+		}
+		inputs.addAll(runs);
+
+		File file = newFile(".postings");
+		Merged merged = new Merged(file, terms.size());
+
+		PriorityQueue<Run> queue = new PriorityQueue<Run>();
+		for (int i = 0; i < inputs.size(); i++) {
+			Run run = new Run(inputs.get(i), i);
+			if (run.next())
+				queue.add(run);
+		}
+		Run[] same = new Run[inputs.size()];
+		while (!queue.isEmpty()) {
+			// Take the runs with the smallest term, in run order
+			String term = queue.peek().term;
+			int n = 0;
+			while (!queue.isEmpty() && queue.peek().term.equals(term))
+				same[n++] = queue.poll();
+
+			merged.startTerm(term);
+			for (int i = 0; i < n; i++) {
+				same[i].copyEntries(merged);
+				if (same[i].next())
+					queue.add(same[i]);
+			}
+			merged.endTerm();
+		}
+		merged.close(file);
+
+		runs.clear();
+		postingsFile = file;
+		postings = new RandomAccessFile(file, "r");
+		terms = merged.terms;
+		offsets = merged.offsets;
+		if (manifest().exists())
+			save();
+		for (File input : inputs)
+			input.delete();
+	}
+
+	/** Number of bytes writeUTF writes for s. */
+	private static int utfLength(String s) {
+		int length = 2;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF) ? 3 : 2;
+		}
+		return length;
+	}
+
+
+	/**
+	 *  A run (or postings file) being read during a merge, positioned
+	 *  at the postings of its current term.
+	 */
+	private static class Run implements Comparable<Run> {
+		private final DataInputStream in;
+		private final int order;
+		String term;
+
+		/** Number of terms not yet read. */
+		private int remaining;
+
+		Run(File file, int order) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			this.order = order;
+			remaining = in.readInt();
+		}
+
+		/** Reads the next term. */
+		boolean next() throws IOException {
+			if (remaining-- == 0) {
+				in.close();
+				return false;
+			}
+			term = in.readUTF();
+			return true;
+		}
+
+		/**
+		 *  Copies the postings of the current term to the current term of
+		 *  out, except for those of deleted documents. The end of the
+		 *  record is not copied.
+		 */
+		void copyEntries(Merged out) throws IOException {
+			int freq;
+			while ((freq = in.readInt()) > 0) {
+				int docID = in.readInt();
+				if (docs.isDeleted(docID)) {
+					for (int j = 0; j < freq; j++)
+						in.readInt();
+					continue;
+				}
+				out.copyEntry(freq, docID, in);
+			}
+			// The bound is that of the merged postings instead
+			in.readDouble();
+		}
+
+		public int compareTo(Run other) {
+			int c = term.compareTo(other.term);
+			return (c != 0) ? c : Integer.compare(order, other.order);
+		}
+	}
+
+
+	/**
+	 *  The postings file being written by a merge, and the offset of
+	 *  each of its terms. The record of a term is only written once it
+	 *  gets an entry, so terms whose postings were all deleted are left
+	 *  out.
+	 */
+	private static class Merged {
+		private final DataOutputStream out;
+		final ArrayList<String> terms = new ArrayList<String>();
+		long[] offsets;
+
+		/** Number of bytes written, starting with the number of terms. */
+		private long written = 4;
+
+		/** The current term, and whether its record has been started. */
+		private String term;
+		private boolean started;
+
+		/** Largest tf / sqrt(document length) of the current term so far. */
+		private double maxTfNorm;
+
+		/** Starts the file, which is expected to get about numTerms terms. */
+		Merged(File file, int numTerms) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			offsets = new long[Math.max(16, numTerms + 1)];
+			// The number of terms is written once it is known
+			out.writeInt(0);
+		}
+
+		/** Makes term the current term. */
+		void startTerm(String term) {
+			this.term = term;
+			started = false;
+			maxTfNorm = 0;
+		}
+
+		/** Writes an entry of the current term, with positions read from in. */
+		void copyEntry(int freq, int docID, DataInputStream in) throws IOException {
+			if (!started)
+				writeTerm();
+			out.writeInt(freq);
+			out.writeInt(docID);
+			for (int j = 0; j < freq; j++)
+				out.writeInt(in.readInt());
+			written += 8 + 4L * freq;
+			maxTfNorm = Math.max(maxTfNorm, freq / docs.norm(docID));
+		}
+
+		/** Ends the record of the current term, if it has one. */
+		void endTerm() throws IOException {
+			if (!started)
+				return;
+			out.writeInt(0);
+			out.writeDouble(maxTfNorm);
+			written += 12;
+		}
+
+		/** Starts the record of the current term. */
+		private void writeTerm() throws IOException {
+			if (terms.size() + 1 == offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			offsets[terms.size()] = written;
+			terms.add(term);
+			out.writeUTF(term);
+			written += utfLength(term);
+			started = true;
+		}
+
+		/** Closes the file, and writes the number of terms at its start. */
+		void close(File file) throws IOException {
+			offsets[terms.size()] = written;
+			out.close();
+			RandomAccessFile header = new RandomAccessFile(file, "rw");
+			header.writeInt(terms.size());
+			header.close();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ *   Saves and restores the state of an indexing run, so that a run that
+ *   was stopped can be resumed rather than started over.
+ *
+ *   A checkpoint holds the document table, which also tells which files
+ *   have been indexed, and the postings of the index (see
+ *   Index.writeCheckpoint). It is written to a temporary file which is
+ *   then moved over the previous checkpoint, so the checkpoint file is
+ *   always either the old or the new checkpoint in full, whenever the
+ *   run stops.
+ */
+public class Checkpoint {
+
+	/** Identifies a checkpoint file, and its format. */
+	private static final int MAGIC = 0x49524350;
+
+	/** Writes a checkpoint of index (and Index.docs) to file. */
+	public static void save(Index index, File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		File tmp = new File(dir, file.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos, 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeUTF(index.getClass().getName());
+			out.writeObject(Index.docs);
+			index.writeCheckpoint(out);
+			out.flush();
+			// Make sure the checkpoint is on disk before it replaces the old one
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 *  Restores the checkpoint in file into index, which should be empty,
+	 *  and into Index.docs. Returns false if there is no checkpoint.
+	 */
+	public static boolean load(Index index, File file) throws IOException {
+		if (!file.exists())
+			return false;
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a checkpoint");
+			String type = in.readUTF();
+			if (!type.equals(index.getClass().getName()))
+				throw new IOException(file + " is a checkpoint of a " + type);
+			Index.docs.addAll((DocumentTable) in.readObject());
+			index.readCheckpoint(in);
+			return true;
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		finally {
+			in.close();
+		}
+	}
+}
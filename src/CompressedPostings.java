@@ -0,0 +1,157 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.nio.ByteBuffer;
+
+/**
+ *   The postings of a term in a compressed HashedIndex, encoded in
+ *   blocks by PostingsCodec.
+ *
+ *   New entries are collected in a PostingsList, the tail, until it
+ *   holds BLOCK_SIZE entries and the next document starts, and are then
+ *   encoded as a block. Before the postings are read, the entries in the
+ *   tail are encoded as a last, shorter block. That block is decoded
+ *   into the tail again if more entries are added later. Entries must be
+ *   added in docID order.
+ */
+public class CompressedPostings {
+	private static final int BLOCK_SIZE = PostingsCodec.BLOCK_SIZE;
+
+	/** The encoded blocks. */
+	private final PostingsCodec.Output blocks = new PostingsCodec.Output(16);
+
+	/** Number of entries in the blocks, and the docID of the last of them. */
+	private int size = 0;
+	private int lastDocID = 0;
+
+	/**
+	 *  Offset of the last block if it has fewer than BLOCK_SIZE entries,
+	 *  or -1, and the docID of the last entry before that block.
+	 */
+	private int shortBlock = -1;
+	private int shortBlockPrev;
+
+	/** Entries not yet encoded, or null. */
+	private PostingsList tail;
+
+	/**
+	 *  Largest tf / sqrt(document length) of any entry, or NaN if it has
+	 *  not been computed since the postings last changed.
+	 */
+	private double maxTfNorm = Double.NaN;
+
+	/** Adds an occurrence of the term in docID at offset. */
+	public void add(int docID, int offset) {
+		tailFor(docID).add(docID, offset);
+	}
+
+	/** Appends all entries of list, which must come after those already here. */
+	void appendAll(PostingsList list) {
+		for (int i = 0; i < list.size(); i++)
+			tailFor(list.docIDs[i]).addEntry(list, i);
+	}
+
+	/**
+	 *  Returns the tail that an entry for docID should go into, after
+	 *  encoding the tail as a block if it is full and docID is a new
+	 *  document.
+	 */
+	private PostingsList tailFor(int docID) {
+		maxTfNorm = Double.NaN;
+		if (tail == null) {
+			reopen();
+		} else if (tail.size == BLOCK_SIZE && tail.docIDs[BLOCK_SIZE - 1] != docID) {
+			encodeTail();
+			tail = new PostingsList();
+		}
+		return tail;
+	}
+
+	/** Encodes the entries of the tail as a block. */
+	private void encodeTail() {
+		shortBlock = (tail.size < BLOCK_SIZE) ? blocks.size : -1;
+		shortBlockPrev = lastDocID;
+		PostingsCodec.writeBlock(blocks, tail, 0, tail.size, lastDocID);
+		size += tail.size;
+		lastDocID = tail.docIDs[tail.size - 1];
+	}
+
+	/** Starts a new tail, with the entries of the last block if it is short. */
+	private void reopen() {
+		tail = new PostingsList();
+		if (shortBlock < 0)
+			return;
+		int n = size % BLOCK_SIZE;
+		PostingsCodec.decodeBlocks(ByteBuffer.wrap(blocks.bytes), shortBlock, n, shortBlockPrev, tail);
+		blocks.size = shortBlock;
+		size -= n;
+		lastDocID = shortBlockPrev;
+		shortBlock = -1;
+	}
+
+	/**
+	 *  Encodes the tail, so that all entries are in blocks, and frees the
+	 *  unused space.
+	 */
+	private void seal() {
+		if (tail == null)
+			return;
+		if (tail.size > 0)
+			encodeTail();
+		tail = null;
+		blocks.trim();
+	}
+
+	/** Number of entries. */
+	public int size() {
+		return size + ((tail == null) ? 0 : tail.size);
+	}
+
+	/** Number of bytes used by the encoded entries. */
+	public int encodedBytes() {
+		return blocks.bytes.length;
+	}
+
+	/** Decodes all entries into a PostingsList. */
+	public PostingsList decode() {
+		seal();
+		PostingsList list = new PostingsList();
+		PostingsCodec.decodeBlocks(ByteBuffer.wrap(blocks.bytes), 0, size, 0, list);
+		return list;
+	}
+
+	/** Returns a cursor that decodes the entries block by block. */
+	public PostingsCursor cursor() {
+		seal();
+		return new PostingsCodec.Cursor(ByteBuffer.wrap(blocks.bytes), 0, size, lastDocID) {
+				/** Computed the first time, and kept until the postings change. */
+				double maxTfNorm() {
+					if (Double.isNaN(maxTfNorm))
+						maxTfNorm = super.maxTfNorm();
+					return maxTfNorm;
+				}
+			};
+	}
+
+	/**
+	 *  Returns these postings without the entries of documents marked as
+	 *  deleted in docs, or null if there are none left.
+	 */
+	CompressedPostings withoutDeleted(DocumentTable docs) {
+		seal();
+		if (docs.numDeleted() == 0)
+			return this;
+		PostingsList list = decode();
+		PostingsList live = list.withoutDeleted(docs);
+		if (live == list)
+			return this;
+		if (live.size() == 0)
+			return null;
+		CompressedPostings compressed = new CompressedPostings();
+		compressed.appendAll(live);
+		compressed.seal();
+		return compressed;
+	}
+}
@@ -0,0 +1,273 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Keeps an index up to date with the files in a set of directories,
+ *   after they have been indexed once.
+ *
+ *   The directories (and their subdirectories) are watched for files
+ *   being created, modified or deleted. A new file is indexed as a new
+ *   document. A modified file is indexed as a new document too, and its
+ *   old document is marked as deleted, as is the document of a deleted
+ *   file. Searches leave deleted documents out, and once enough of the
+ *   documents have been deleted the index is compacted to free their
+ *   postings.
+ *
+ *   Documents are identified by their path, so this only works for
+ *   indexes that give every new document a new docID (not MegaIndex).
+ */
+public class DirectoryWatcher implements Runnable {
+
+	/**
+	 *  Changes are handled once no event has arrived for this many
+	 *  milliseconds, so that a file being written is indexed once.
+	 */
+	private static final long QUIET_MILLIS = 500;
+
+	/**
+	 *  The index is compacted when this fraction of its documents has
+	 *  been deleted since it was last compacted.
+	 */
+	private static final double COMPACTION_RATIO = 0.1;
+
+	private final Indexer indexer;
+
+	/** Lock held while the index is changed, shared with the searches. */
+	private final Object indexLock;
+
+	private final WatchService watcher;
+
+	/** The watched directories, by their watch keys. */
+	private final HashMap<WatchKey,Path> dirs = new HashMap<WatchKey,Path>();
+
+	/** The directories given to watch, which are rescanned if events are lost. */
+	private final List<Path> roots = new ArrayList<Path>();
+
+	/** The docID of the live document of each file, by absolute path. */
+	private final HashMap<String,Integer> docIDs = new HashMap<String,Integer>();
+
+	/**
+	 *  When each file in docIDs was indexed (or, for the files indexed
+	 *  before watching started, when it started), by absolute path.
+	 */
+	private final HashMap<String,Long> indexedAt = new HashMap<String,Long>();
+
+	private int deletedSinceCompaction = 0;
+
+	/**
+	 *  Starts watching the directories dirNames, which should already
+	 *  have been indexed by indexer.
+	 */
+	public DirectoryWatcher(Indexer indexer, List<String> dirNames, Object indexLock) throws IOException {
+		this.indexer = indexer;
+		this.indexLock = indexLock;
+		watcher = FileSystems.getDefault().newWatchService();
+		long now = System.currentTimeMillis();
+		synchronized (indexLock) {
+			DocumentTable docs = Index.docs;
+			for (int slot = 0; slot < docs.size(); slot++) {
+				int docID = docs.docIDAt(slot);
+				if (!docs.isDeleted(docID)) {
+					String name = key(Paths.get(docs.name(docID)));
+					docIDs.put(name, docID);
+					indexedAt.put(name, now);
+				}
+			}
+		}
+		for (String name : dirNames) {
+			Path root = Paths.get(name);
+			roots.add(root);
+			register(root);
+		}
+	}
+
+	/** Watches dir and all directories below it. */
+	private void register(Path dir) throws IOException {
+		if (!Files.isDirectory(dir) || dirs.containsValue(dir))
+			return;
+		WatchKey key = dir.register(watcher,
+			StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_MODIFY,
+			StandardWatchEventKinds.ENTRY_DELETE);
+		dirs.put(key, dir);
+		File[] fs = dir.toFile().listFiles();
+		if (fs != null) {
+			for (File f : fs) {
+				if (f.isDirectory())
+					register(f.toPath());
+			}
+		}
+	}
+
+	/** Identifies the file at path, however the path was written. */
+	private static String key(Path path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 *  Waits for changes and updates the index, until the thread is
+	 *  interrupted.
+	 */
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Set<Path> changed = new LinkedHashSet<Path>();
+				boolean overflow = false;
+				// Collect events until things have been quiet for a while
+				while (key != null) {
+					Path dir = dirs.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+							overflow = true;
+						else if (dir != null)
+							changed.add(dir.resolve((Path) event.context()));
+					}
+					if (!key.reset())
+						dirs.remove(key);
+					key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				synchronized (indexLock) {
+					for (Path path : changed) {
+						try {
+							update(path);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					if (overflow)
+						rescan();
+					indexer.index.finishIndexing();
+					if (deletedSinceCompaction > COMPACTION_RATIO * Index.docs.size()) {
+						indexer.index.compact();
+						deletedSinceCompaction = 0;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stop watching
+		}
+	}
+
+	/**
+	 *  Brings the index up to date with the file or directory at path,
+	 *  which has been created, modified or deleted.
+	 */
+	private void update(Path path) throws IOException {
+		String name = key(path);
+		if (Files.isDirectory(path)) {
+			if (!dirs.containsValue(path)) {
+				// A new directory, whose files may not have events of their own
+				register(path);
+				indexNew(path.toFile());
+			}
+			return;
+		}
+
+		Integer old = docIDs.remove(name);
+		indexedAt.remove(name);
+		if (old != null) {
+			delete(old);
+		}
+		else if (!Files.exists(path)) {
+			// Perhaps a directory was deleted, with all its files
+			String prefix = name + File.separator;
+			Iterator<Map.Entry<String,Integer>> it = docIDs.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String,Integer> e = it.next();
+				if (e.getKey().startsWith(prefix)) {
+					delete(e.getValue());
+					indexedAt.remove(e.getKey());
+					it.remove();
+				}
+			}
+		}
+		if (Files.isRegularFile(path))
+			index(path.toFile());
+	}
+
+	/**
+	 *  Indexes the files in the watched directories that are not in the
+	 *  index, deletes the documents of files that no longer exist, and
+	 *  indexes anew the files modified since they were indexed, for when
+	 *  watch events have been lost.
+	 */
+	private void rescan() {
+		List<File> modified = new ArrayList<File>();
+		Iterator<Map.Entry<String,Integer>> it = docIDs.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String,Integer> e = it.next();
+			File f = new File(e.getKey());
+			if (!f.exists()) {
+				delete(e.getValue());
+				indexedAt.remove(e.getKey());
+				it.remove();
+			} else if (f.lastModified() > indexedAt.get(e.getKey())) {
+				delete(e.getValue());
+				indexedAt.remove(e.getKey());
+				it.remove();
+				modified.add(f);
+			}
+		}
+		for (File f : modified)
+			index(f);
+		for (Path root : roots)
+			indexNew(root.toFile());
+	}
+
+	/** Indexes the files at or below f that are not in the index. */
+	private void indexNew(File f) {
+		if (f.isDirectory()) {
+			File[] fs = f.listFiles();
+			if (fs != null) {
+				for (File child : fs)
+					indexNew(child);
+			}
+		}
+		else if (!docIDs.containsKey(key(f.toPath()))) {
+			index(f);
+		}
+	}
+
+	/** Indexes the file f as a new document. */
+	private void index(File f) {
+		DocumentTable docs = Index.docs;
+		int first = docs.size();
+		// Taken before reading, so that a change while reading is seen as later
+		long now = System.currentTimeMillis();
+		indexer.processFiles(f);
+		for (int slot = first; slot < docs.size(); slot++) {
+			int docID = docs.docIDAt(slot);
+			String name = key(Paths.get(docs.name(docID)));
+			docIDs.put(name, docID);
+			indexedAt.put(name, now);
+		}
+	}
+
+	private void delete(int docID) {
+		Index.docs.delete(docID);
+		deletedSinceCompaction++;
+	}
+}
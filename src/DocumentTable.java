@@ -0,0 +1,210 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *   Per-document metadata (file name, length in tokens and length norm),
+ *   keyed by docID.
+ *
+ *   Documents are stored in slots, in the order they were added. As long
+ *   as every docID equals its slot (the sequential docIDs of a
+ *   HashedIndex) a docID is used directly as an array index. Otherwise
+ *   (the hash code docIDs of a MegaIndex) docIDs are mapped to slots by
+ *   an open-addressing hash table.
+ *
+ *   A document can be marked as deleted. It keeps its slot, but searches
+ *   leave it out of their results.
+ */
+public class DocumentTable implements Serializable {
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Number of documents. */
+	private int size = 0;
+
+	private int[] docIDs = new int[INITIAL_CAPACITY];
+	private String[] names = new String[INITIAL_CAPACITY];
+	private int[] lengths = new int[INITIAL_CAPACITY];
+
+	/** sqrt(length) of each document, the norm used in ranked retrieval. */
+	private float[] norms = new float[INITIAL_CAPACITY];
+
+	/** docID to slot mapping, or null while every docID equals its slot. */
+	private SlotMap slots = null;
+
+	/** Slots of the deleted documents. */
+	private BitSet deleted = new BitSet();
+	private int numDeleted = 0;
+
+	/** Number of documents in the table. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the slot of docID, or -1 if it is not in the table. */
+	private int slot(int docID) {
+		if (slots == null)
+			return (docID >= 0 && docID < size) ? docID : -1;
+		return slots.get(docID);
+	}
+
+	public boolean contains(int docID) {
+		return slot(docID) >= 0;
+	}
+
+	/** The docID of the document in slot (0 <= slot < size()). */
+	public int docIDAt(int slot) {
+		return docIDs[slot];
+	}
+
+	/** Marks docID as deleted. */
+	public void delete(int docID) {
+		int slot = slot(docID);
+		if (slot >= 0 && !deleted.get(slot)) {
+			deleted.set(slot);
+			numDeleted++;
+		}
+	}
+
+	public boolean isDeleted(int docID) {
+		if (numDeleted == 0)
+			return false;
+		int slot = slot(docID);
+		return slot >= 0 && deleted.get(slot);
+	}
+
+	/** Number of documents marked as deleted. */
+	public int numDeleted() {
+		return numDeleted;
+	}
+
+	/**
+	 *  Adds a document, or renames it if docID is already in the table.
+	 */
+	public void add(int docID, String name) {
+		int slot = slot(docID);
+		if (slot < 0) {
+			slot = size;
+			if (slots == null && docID != slot) {
+				// The docIDs are no longer slots, so start mapping them
+				slots = new SlotMap();
+				for (int i = 0; i < size; i++)
+					slots.put(i, i);
+			}
+			if (slots != null)
+				slots.put(docID, slot);
+			ensureCapacity(size + 1);
+			docIDs[slot] = docID;
+			size++;
+		}
+		names[slot] = name;
+	}
+
+	/** Sets the length (in tokens) of a document already in the table. */
+	public void setLength(int docID, int length) {
+		int slot = slot(docID);
+		lengths[slot] = length;
+		norms[slot] = (float) Math.sqrt(length);
+	}
+
+	/** The length of docID in tokens, or 0 if it is not in the table. */
+	public int length(int docID) {
+		int slot = slot(docID);
+		return (slot < 0) ? 0 : lengths[slot];
+	}
+
+	/** sqrt(length) of docID, or 0 if it is not in the table. */
+	public float norm(int docID) {
+		int slot = slot(docID);
+		return (slot < 0) ? 0 : norms[slot];
+	}
+
+	/** The file name of docID, or null if it is not in the table. */
+	public String name(int docID) {
+		int slot = slot(docID);
+		return (slot < 0) ? null : names[slot];
+	}
+
+	/** Adds all documents of other to this table. */
+	public void addAll(DocumentTable other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.docIDs[i], other.names[i]);
+			setLength(other.docIDs[i], other.lengths[i]);
+			if (other.deleted.get(i))
+				delete(other.docIDs[i]);
+		}
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= docIDs.length)
+			return;
+		int capacity = Math.max(n, docIDs.length + (docIDs.length >> 1));
+		docIDs = Arrays.copyOf(docIDs, capacity);
+		names = Arrays.copyOf(names, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		norms = Arrays.copyOf(norms, capacity);
+	}
+
+
+	/**
+	 *  Open-addressing hash table from docID to slot, with linear probing.
+	 *  Empty buckets hold slot -1.
+	 */
+	static class SlotMap implements Serializable {
+		private int[] keys = new int[INITIAL_CAPACITY];
+		private int[] values = new int[INITIAL_CAPACITY];
+		private int size = 0;
+
+		SlotMap() {
+			Arrays.fill(values, -1);
+		}
+
+		private static int hash(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		int get(int key) {
+			int mask = keys.length - 1;
+			for (int b = hash(key) & mask; values[b] >= 0; b = (b + 1) & mask) {
+				if (keys[b] == key)
+					return values[b];
+			}
+			return -1;
+		}
+
+		void put(int key, int value) {
+			// Keep the load factor at most 1/2
+			if ((size + 1) * 2 > keys.length)
+				rehash(keys.length * 2);
+			int mask = keys.length - 1;
+			int b = hash(key) & mask;
+			while (values[b] >= 0) {
+				if (keys[b] == key) {
+					values[b] = value;
+					return;
+				}
+				b = (b + 1) & mask;
+			}
+			keys[b] = key;
+			values[b] = value;
+			size++;
+		}
+
+		private void rehash(int capacity) {
+			int[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new int[capacity];
+			values = new int[capacity];
+			Arrays.fill(values, -1);
+			size = 0;
+			for (int b = 0; b < oldKeys.length; b++)
+				if (oldValues[b] >= 0)
+					put(oldKeys[b], oldValues[b]);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *   Reads files for indexing. A file is opened once, and its bytes are
+ *   either read into a buffer in one go (small files) or mapped into
+ *   memory (large files). The buffer is then used both to tell PDF files
+ *   from text files and as the input of the PDF parser or the text
+ *   decoder. Either way the whole file is in memory (on the heap, or in
+ *   pages of the mapping) while it is indexed.
+ */
+public class FileContents {
+
+	/** Files larger than this are mapped rather than read. */
+	private static final int MAP_THRESHOLD = 1 << 20;
+
+	/** Returns the contents of f, opening it once. */
+	public static ByteBuffer read(File f) throws IOException {
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > MAP_THRESHOLD)
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			ByteBuffer buf = ByteBuffer.allocate((int) size);
+			while (buf.hasRemaining() && channel.read(buf) >= 0)
+				;
+			buf.flip();
+			return buf;
+		}
+		finally {
+			// A mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	/** true if contents starts like a PDF file. */
+	public static boolean isPDF(ByteBuffer contents) {
+		return contents.remaining() >= 4
+			&& contents.get(0) == '%' && contents.get(1) == 'P'
+			&& contents.get(2) == 'D' && contents.get(3) == 'F';
+	}
+
+	/** Returns a Reader of contents decoded with charset. */
+	public static Reader reader(ByteBuffer contents, Charset charset) {
+		return new DecodingReader(contents.duplicate(), charset);
+	}
+
+	/** Returns an InputStream of contents. */
+	public static InputStream inputStream(ByteBuffer contents) {
+		final ByteBuffer buf = contents.duplicate();
+		return new InputStream() {
+			public int read() {
+				return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+			}
+
+			public int read(byte[] b, int off, int len) {
+				if (len == 0)
+					return 0;
+				if (!buf.hasRemaining())
+					return -1;
+				len = Math.min(len, buf.remaining());
+				buf.get(b, off, len);
+				return len;
+			}
+
+			public int available() {
+				return buf.remaining();
+			}
+		};
+	}
+
+
+	/**
+	 *  Decodes a byte buffer straight into the caller's char array, with
+	 *  malformed input replaced rather than reported. A read only returns
+	 *  fewer characters than asked for at the end of the input.
+	 */
+	private static class DecodingReader extends Reader {
+		private final ByteBuffer in;
+		private final CharsetDecoder decoder;
+		private boolean flushed = false;
+
+		DecodingReader(ByteBuffer in, Charset charset) {
+			this.in = in;
+			decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (flushed)
+				return -1;
+			CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+			CoderResult result = decoder.decode(in, out, true);
+			if (result.isUnderflow() && !flushed) {
+				// All input is decoded, so let the decoder finish
+				result = decoder.flush(out);
+				flushed = result.isUnderflow();
+			}
+			if (result.isError())
+				result.throwException();
+			int n = out.position() - off;
+			return (n == 0) ? -1 : n;
+		}
+
+		public void close() {
+		}
+	}
+}
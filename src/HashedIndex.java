@@ -8,161 +8,483 @@
  */  
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.HashMap;
-import java.util.Collections;
-import java.util.regex.*;
 
 /**
- *   Implements an inverted index as a Hashtable from words to PostingsLists.
+ *   Implements an inverted index as an array of PostingsLists, indexed
+ *   by the term IDs of a term dictionary.
+ *
+ *   A compressed index keeps the postings of each term as
+ *   CompressedPostings instead, which take a fraction of the space.
+ *   Searches then decode them block by block through cursors, and only
+ *   getPostings decodes a whole list. An off-heap index keeps the
+ *   encoded postings of all terms in a PostingsArena, outside the Java
+ *   heap, so that garbage collection does not take longer as the index
+ *   grows.
+ *
+ *   An index can be saved as a snapshot, a segment (see Segment) with
+ *   the postings of all terms, and opened again by its name without
+ *   indexing the documents again. The snapshot of an index called NAME
+ *   is NAME.0, NAME.1 or so on, in ./index, and NAME.snapshot holds the
+ *   document table and the name of the segment. An opened snapshot is
+ *   read through memory maps, and a term is only added to the term
+ *   dictionary, with its postings, the first time it is looked up.
  */
 public class HashedIndex implements Index {
-	/** The index as a hashtable. */
-	private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+	/** The directory where snapshots are written. */
+	private static final String path = "./index";
+
+	/**
+	 *  The term IDs of the terms in the index, except those in the
+	 *  snapshot that have not been looked up yet.
+	 */
+	private final TermDictionary terms = new TermDictionary();
+
+	/** The postings of each term by term ID, or null if it has none. */
+	private PostingsList[] index;
+
+	/** As index, in a compressed index (where index is null). */
+	private CompressedPostings[] compressed;
+
+	/** The postings of an off-heap index (where index is null). */
+	private PostingsArena arena;
+
+	/** Ways of keeping the postings: as PostingsLists, compressed, or compressed off the heap. */
+	public static final int LISTS = 0;
+	public static final int COMPRESSED = 1;
+	public static final int OFF_HEAP = 2;
 
 	private PageRank pageRank;
 
-	private Pattern docNamePattern = Pattern.compile("([^\\\\/]+?)(?:\\..+)?$");
+	/** The name of the index, or null if it has not been saved or opened. */
+	private String name;
+
+	/** The number of the next snapshot segment to be written. */
+	private int nextSnapshot = 0;
+
+	/** The snapshot that the index was opened from, or null. */
+	private Segment snapshot;
+
+	/**
+	 *  Creates an index that keeps its postings as PostingsLists.
+	 */
+	public HashedIndex() {
+		this(LISTS);
+	}
+
+	/**
+	 *  Creates an index that keeps its postings as given by storage
+	 *  (LISTS, COMPRESSED or OFF_HEAP).
+	 */
+	public HashedIndex(int storage) {
+		if (storage == OFF_HEAP) {
+			arena = new PostingsArena();
+			arena.ensureCapacity(1024);
+		}
+		else if (storage == COMPRESSED)
+			compressed = new CompressedPostings[1024];
+		else
+			index = new PostingsList[1024];
+	}
+
+	/**
+	 *  Opens the snapshot of the index called name, or creates a new
+	 *  index by that name if there is none. The documents of the index
+	 *  are added to docs.
+	 */
+	public HashedIndex(String name, int storage) {
+		this(storage);
+		this.name = name;
+		new File(path).mkdirs();
+		File manifest = manifest();
+		if (!manifest.exists())
+			return;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+			try {
+				docs.addAll((DocumentTable) in.readObject());
+				nextSnapshot = in.readInt();
+				snapshot = new Segment(new File(path), in.readUTF());
+			}
+			finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Couldn't open index " + name, e);
+		}
+	}
+
+	/** True if the postings are compressed, whether on or off the heap. */
+	public boolean isCompressed() {
+		return compressed != null || arena != null;
+	}
 
 	/**
 	 *  Inserts this token in the index.
 	 */
-	public void insert(String token, int docID, int offset) {
-		PostingsList list = index.get(token);
+	public void insert(CharSequence token, int docID, int offset) {
+		insert(termID(token), docID, offset);
+	}
+
+	/** Returns the term ID of token, and gives it one if it has none. */
+	int termID(CharSequence token) {
+		if (snapshot != null) {
+			int termID = lookup(token);
+			if (termID >= 0)
+				return termID;
+		}
+		return terms.add(token);
+	}
+
+	/**
+	 *  Returns the term ID of token, or -1 if it has none. A term that is
+	 *  in the snapshot, but has not been looked up before, is first given
+	 *  a term ID and its postings are read from the snapshot.
+	 */
+	private int lookup(CharSequence token) {
+		int termID = terms.get(token);
+		if (termID >= 0 || snapshot == null)
+			return termID;
+		int i = snapshot.find(token.toString());
+		if (i < 0)
+			return -1;
+		termID = terms.add(token);
+		appendAll(termID, snapshot.postings(i));
+		return termID;
+	}
+
+	/** Reads the terms of the snapshot that have not been looked up yet. */
+	private void lookupAll() {
+		if (snapshot == null)
+			return;
+		for (int i = 0; i < snapshot.size(); i++)
+			lookup(snapshot.term(i));
+	}
+
+	/**
+	 *  Inserts a token with the term ID termID (from termID()) in the index.
+	 */
+	void insert(int termID, int docID, int offset) {
+		ensureCapacity(termID);
+		if (arena != null) {
+			arena.add(termID, docID, offset);
+			return;
+		}
+		if (compressed != null) {
+			if (compressed[termID] == null)
+				compressed[termID] = new CompressedPostings();
+			compressed[termID].add(docID, offset);
+			return;
+		}
+		PostingsList list = index[termID];
 
 		if (list == null) {
 			list = new PostingsList();
-			index.put(token, list);
+			index[termID] = list;
 		}
 
 		list.add(docID, offset);
 	}
 
+	/** Makes room in index for the term ID termID. */
+	private void ensureCapacity(int termID) {
+		if (arena != null)
+			arena.ensureCapacity(termID + 1);
+		else if (compressed != null) {
+			if (termID >= compressed.length)
+				compressed = Arrays.copyOf(compressed, Math.max(compressed.length * 2, termID + 1));
+		}
+		else if (termID >= index.length)
+			index = Arrays.copyOf(index, Math.max(index.length * 2, termID + 1));
+	}
+
+	/** Number of term IDs there is room for. */
+	private int capacity() {
+		if (arena != null)
+			return arena.capacity();
+		return (compressed != null) ? compressed.length : index.length;
+	}
+
+	/** True if the term with the ID termID has postings. */
+	private boolean has(int termID) {
+		if (termID < 0 || termID >= capacity())
+			return false;
+		if (arena != null)
+			return arena.has(termID);
+		return (compressed != null ? compressed[termID] : index[termID]) != null;
+	}
+
+	/**
+	 *  Returns the postings of the term with the ID termID, decoded if
+	 *  the index is compressed, or null if there are none.
+	 */
+	private PostingsList list(int termID) {
+		if (!has(termID))
+			return null;
+		if (arena != null)
+			return arena.decode(termID);
+		return (compressed != null) ? compressed[termID].decode() : index[termID];
+	}
+
+	/**
+	 *  Appends all entries of list to the postings of termID. The list
+	 *  may be taken over as it is.
+	 */
+	private void appendAll(int termID, PostingsList list) {
+		ensureCapacity(termID);
+		if (arena != null)
+			arena.appendAll(termID, list);
+		else if (compressed != null) {
+			if (compressed[termID] == null)
+				compressed[termID] = new CompressedPostings();
+			compressed[termID].appendAll(list);
+		}
+		else if (index[termID] == null)
+			index[termID] = list;
+		else
+			index[termID].appendAll(list);
+	}
+
+	/**
+	 *  Moves all postings of other into this index. The documents of
+	 *  other should come after those already in this index, so that the
+	 *  postings lists stay in docID order. other must not be used
+	 *  afterwards, since its lists may be taken over as they are.
+	 */
+	void addAll(HashedIndex other) {
+		for (int t = 0; t < other.terms.size(); t++) {
+			PostingsList from = other.list(t);
+			if (from == null)
+				continue;
+			appendAll(termID(other.terms.term(t)), from);
+		}
+	}
+
 	/**
 	 *  Returns the postings for a specific term, or null
 	 *  if the term is not in the index.
 	 */
 	public PostingsList getPostings(String token) {
-		return index.get(token) == null ? new PostingsList() : index.get(token);
+		PostingsList list = list(lookup(token));
+		return (list == null) ? new PostingsList() : list;
+	}
+
+	/**
+	 *  Returns a cursor over the postings of a term, which decodes
+	 *  compressed postings as it goes rather than all at once.
+	 */
+	PostingsCursor cursor(String token) {
+		int termID = lookup(token);
+		if (arena != null && arena.has(termID))
+			return arena.cursor(termID);
+		if (compressed != null && has(termID))
+			return compressed[termID].cursor();
+		PostingsList list = getPostings(token);
+		// Kept with the list until more postings are added to it
+		list.maxTfNorm();
+		return list.cursor();
 	}
 
 	/**
 	 *  Searches the index for postings matching the query in @code{searchTerms}.
 	 */
 	public PostingsList search(LinkedList<String> searchTerms, int queryType) {
+		return search(searchTerms, queryType, Integer.MAX_VALUE);
+	}
+
+	/**
+	 *  Searches the index for postings matching the query in @code{searchTerms}.
+	 *  Ranked queries only return the k best documents.
+	 */
+	public PostingsList search(LinkedList<String> searchTerms, int queryType, int k) {
 		PostingsList result = null;
 
 		// Normal word queries
-		if (queryType != Index.RANKED_QUERY) {
-			for (String term : searchTerms) {
-				if (result == null)
-					result = getPostings(term);
-			else if (queryType == Index.UNION_QUERY)
-				result = result.unionWith(getPostings(term));
-				else
-					result = result.intersect(getPostings(term), queryType == Index.PHRASE_QUERY);
-			}
+		if (queryType == Index.INTERSECTION_QUERY) {
+			result = QueryPlanner.intersect(this, searchTerms);
+		}
+		else if (queryType == Index.PHRASE_QUERY) {
+			result = QueryPlanner.phrase(this, searchTerms);
+		}
+		else if (queryType == Index.UNION_QUERY) {
+			result = QueryPlanner.union(this, searchTerms);
 		}
 		// Ranked queries
 		else {
-			int numDocuments = docIDs.size();
+			result = RankedSearch.search(this, pageRank, searchTerms, k);
+		} // ranked queries
 
-			// Term frequency in query
-			HashMap<String, Integer> termCounts = new HashMap<String, Integer>();
-			for (String term : searchTerms) {
-				Integer count = termCounts.get(term);          
-				termCounts.put(term, (count == null) ? 1 : count + 1);
-			}
+		return (result == null) ? new PostingsList() : result;
+	}
 
-			int numSearchTerms = searchTerms.size(); // total number of terms in search
-			int numTerms = termCounts.size(); // number of distinct terms
-			String[] terms = termCounts.keySet().toArray(new String[0]); // distinct terms
-			double[] queryTFIDF = new double[numTerms];
-
-			// Query for each term separately
-			PostingsList[] termResults = new PostingsList[numTerms];
-
-			// DocID -> array index mapping
-			HashMap<Integer,Integer> resultDocIds = new HashMap<Integer,Integer>();
-			int currentDocIdx = 0;
-
-			// Query for each distinct term, compute TFIDF and create docID -> index mapping
-			int idx = 0; // term index
-			for (String term : terms) {
-				termResults[idx] = getPostings(term);
-
-				// Calculate term TFIDF
-				int tf = termCounts.get(terms[idx]);
-				int df = termResults[idx].size();
-				double idf = (df < 1) ? 0 : Math.log10((double) numDocuments / df) + 1;
-				queryTFIDF[idx] = tf * idf * idf;
-
-				// Determine index mapping for each document found
-				for (PostingsEntry entry : termResults[idx].list) {
-					Integer entryIndex = resultDocIds.get(entry.docID);
-					if (entryIndex == null) // assign next available index if not seen yet
-						resultDocIds.put(entry.docID, currentDocIdx++);
-				}
-
-				++idx;
+	/**
+	 *  Removes the postings of deleted documents, and the postings lists
+	 *  of terms that only occurred in deleted documents. The terms keep
+	 *  their term IDs.
+	 */
+	public void compact() {
+		lookupAll();
+		if (arena != null) {
+			arena = arena.withoutDeleted(docs);
+			return;
+		}
+		if (compressed != null) {
+			for (int t = 0; t < compressed.length; t++) {
+				if (compressed[t] != null)
+					compressed[t] = compressed[t].withoutDeleted(docs);
 			}
+			return;
+		}
+		for (int t = 0; t < index.length; t++) {
+			if (index[t] == null)
+				continue;
+			PostingsList live = index[t].withoutDeleted(docs);
+			index[t] = (live.size() == 0) ? null : live;
+		}
+	}
 
-			int numResultDocIDs = resultDocIds.size();
+	/** Nothing to do: postings are searchable as soon as they are inserted. */
+	public void finishIndexing() {
+	}
 
-			double[] scores = new double[numResultDocIDs];
+	/**
+	 *  Writes the number of terms with postings, and then each such term
+	 *  followed by its postings.
+	 */
+	public void writeCheckpoint(ObjectOutputStream out) throws IOException {
+		lookupAll();
+		int n = 0;
+		for (int t = 0; t < terms.size(); t++) {
+			if (has(t))
+				n++;
+		}
+		out.writeInt(n);
+		for (int t = 0; t < terms.size(); t++) {
+			PostingsList list = list(t);
+			if (list == null)
+				continue;
+			out.writeUTF(terms.term(t));
+			list.writeTo(out);
+		}
+	}
 
-			// Calculate scores for each document (in regards to each search term)
-			idx = 0;
-			for (PostingsList termResult : termResults) {
-				for (PostingsEntry entry : termResult.list) {
-					// Determine index mapping for document
-					Integer entryIndex = resultDocIds.get(entry.docID);
-					if (entryIndex == null) // assign next available index
-						resultDocIds.put(entry.docID, currentDocIdx++);
+	public void readCheckpoint(ObjectInputStream in) throws IOException {
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			int termID = termID(in.readUTF());
+			appendAll(termID, PostingsList.readFrom(in));
+		}
+	}
 
-					// Compute document score in regard to this term
-					int dTF = entry.getFrequency();
-					int dLength = docLengths.get("" + entry.docID);
-					scores[entryIndex] += queryTFIDF[idx] * dTF / Math.sqrt(numSearchTerms) / Math.sqrt(dLength);
-				}
+	/**
+	 *  Saves the index as a snapshot, so that it can be opened again.
+	 */
+	public void cleanup() {
+		try {
+			save();
+			System.err.println("Saved index " + name);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
 
-				// Merge (union) each PostingsList
-				result = (result == null) ? termResult : result.unionWith(termResult);
+	public void setPageRank(PageRank p) {
+		this.pageRank = p;
+	}
 
-				++idx;
-			}
 
-			// Assign score to corresponding document (postings) entries
-			for (PostingsEntry pe : result.list) {
-				pe.score = scores[resultDocIds.get(pe.docID)];
-				Double rank = (pageRank == null) ? null : pageRank.get(pageRankName(pe.docID));
-				if (rank != null)
-					pe.score *= Math.sqrt(rank * numDocuments);
-			}
+	/* ----------------------------------------------- */
 
-			// Sort documents according to their similarity score.
-			Collections.sort(result.list);
-		} // ranked queries
 
-		return (result == null) ? new PostingsList() : result;
+	/** Invents a name that no saved index in the directory has. */
+	private static String generateName() {
+		long s = System.currentTimeMillis();
+		while (new File(path, s + ".snapshot").exists())
+			s++;
+		return "" + s;
 	}
 
-	private String pageRankName(int id) {
-		String name = docIDs.get("" + id);
-		Matcher m = docNamePattern.matcher(name);
-		if (!m.find())
-			return name;
-		return m.group(1);
+	/** The file with the document table and the name of the snapshot. */
+	private File manifest() {
+		return new File(path, name + ".snapshot");
 	}
 
-
 	/**
-	 *  No need for cleanup in a HashedIndex.
+	 *  Writes the postings of all terms, without those of deleted
+	 *  documents, as a new snapshot segment, and then the manifest. The
+	 *  manifest is written to a temporary file first, so that it always
+	 *  names a complete snapshot. The old snapshot is deleted afterwards.
 	 */
-	public void cleanup() {
+	private void save() throws IOException {
+		if (name == null)
+			name = generateName();
+		File dir = new File(path);
+		dir.mkdirs();
+
+		// The terms looked up so far, and the rest of the snapshot, in sorted order
+		String[] sorted = new String[terms.size()];
+		for (int t = 0; t < sorted.length; t++)
+			sorted[t] = terms.term(t);
+		Arrays.sort(sorted);
+		Segment.Writer out = new Segment.Writer(dir, name + "." + nextSnapshot++);
+		int i = 0;
+		for (String term : sorted) {
+			i = copySnapshot(out, i, term);
+			PostingsList list = list(terms.get(term));
+			if (list != null)
+				out.add(term, list, docs);
+		}
+		copySnapshot(out, i, null);
+		Segment saved = out.close();
+
+		File manifest = manifest();
+		File tmp = new File(path, manifest.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos));
+			oos.writeObject(docs);
+			oos.writeInt(nextSnapshot);
+			oos.writeUTF(saved.name);
+			oos.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		Files.move(tmp.toPath(), manifest.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (snapshot != null)
+			snapshot.delete();
+		snapshot = saved;
 	}
 
-	public void setPageRank(PageRank p) {
-		this.pageRank = p;
+	/**
+	 *  Writes the terms of the snapshot from term number i that come
+	 *  before the term before (or all of them if it is null), and that
+	 *  have not been looked up, with their postings. Returns the number
+	 *  of the first term not written.
+	 */
+	private int copySnapshot(Segment.Writer out, int i, String before) throws IOException {
+		if (snapshot == null)
+			return i;
+		for (; i < snapshot.size(); i++) {
+			String term = snapshot.term(i);
+			if (before != null && term.compareTo(before) >= 0)
+				break;
+			if (terms.get(term) < 0)
+				out.add(term, snapshot.postings(i), docs);
+		}
+		return i;
 	}
 }
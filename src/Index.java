@@ -7,14 +7,18 @@
  */  
 
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.LinkedList;
-import java.util.HashMap;
 
 public interface Index {
 
 	/* Index types */
 	public static final int HASHED_INDEX = 0;
 	public static final int MEGA_INDEX = 1;
+	public static final int BLOCK_INDEX = 2;
+	public static final int SEGMENT_INDEX = 3;
 
 	/* Query types */
 	public static final int INTERSECTION_QUERY = 0;
@@ -22,14 +26,52 @@ public interface Index {
 	public static final int PHRASE_QUERY = 2;
 	public static final int RANKED_QUERY = 4;
 		
-	public HashMap<String, String> docIDs = new HashMap<String,String>();
-	public HashMap<String,Integer> docLengths = new HashMap<String,Integer>();
+	/** Names and lengths of the indexed documents, by docID. */
+	public DocumentTable docs = new DocumentTable();
 
 	public void setPageRank(PageRank p);
 
-	public void insert( String token, int docID, int offset );
+	/**
+	 *  Inserts an occurrence of token in document docID at offset. The
+	 *  token may be the tokenizer's own buffer, which changes with the
+	 *  next token, so it must be copied if it is kept.
+	 */
+	public void insert( CharSequence token, int docID, int offset );
 	public PostingsList getPostings( String token );
 	public PostingsList search( LinkedList<String> searchterms, int queryType );
+
+	/**
+	 *  Like search, but a ranked query only returns the k best
+	 *  documents. Other query types ignore k.
+	 */
+	public PostingsList search( LinkedList<String> searchterms, int queryType, int k );
+
+	/**
+	 *  Removes the postings of documents marked as deleted in docs.
+	 *  Searches leave deleted documents out in any case, this only frees
+	 *  the space.
+	 */
+	public void compact();
+
+	/**
+	 *  Makes everything inserted so far searchable, so that searches do
+	 *  no indexing work. Called when a batch of documents has been
+	 *  indexed.
+	 */
+	public void finishIndexing();
+
+	/**
+	 *  Writes what has been indexed so far to out, as part of a
+	 *  checkpoint of an indexing run. Only called between documents.
+	 */
+	public void writeCheckpoint( ObjectOutputStream out ) throws IOException;
+
+	/**
+	 *  Restores the postings written by writeCheckpoint into this index,
+	 *  which should be empty.
+	 */
+	public void readCheckpoint( ObjectInputStream in ) throws IOException;
+
 	public void cleanup();
 
 }
@@ -8,17 +8,17 @@
 
 import java.io.File;
 import java.io.Reader;
-import java.io.FileReader;
-import java.io.StringReader;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
-import org.apache.pdfbox.cos.COSDocument;
-import org.apache.pdfbox.pdfparser.*;
-import org.apache.pdfbox.util.PDFTextStripper;
-import org.apache.pdfbox.pdmodel.PDDocument;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  *   Processes a directory structure and indexes all PDF and text files.
@@ -31,6 +31,52 @@ public class Indexer {
 	/** The next docID to be generated. */
 	private int lastDocID = 0;
 
+	/** The character encoding of text files. */
+	private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+	/** Number of threads used to index files. */
+	private int numThreads = 1;
+
+	/** What has been indexed so far, and how long it took. */
+	public final IndexingStats stats = new IndexingStats();
+
+	/** true if every file should be logged as it is indexed. */
+	private boolean verbose = false;
+
+	/** 
+	 *  One in this many inserts is timed, since timing every token
+	 *  would take about as long as inserting it.
+	 */
+	private static final int INSERT_SAMPLE = 16;
+
+	/** Extracts the text of PDF files, or null until the first PDF file. */
+	private PDFExtractor pdfExtractor;
+
+	/** 
+	 *  Number of consecutive files indexed together into one partial
+	 *  index, per thread, in a parallel build. Smaller chunks balance the
+	 *  threads better, larger ones make fewer partial indexes to merge.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	/** Where checkpoints of the index are written, or null for none. */
+	private File checkpointFile;
+
+	/** Milliseconds between checkpoints. */
+	private long checkpointMillis;
+
+	/** When the last checkpoint was written. */
+	private long lastCheckpoint;
+
+	/** Number of files per round of a parallel build with checkpoints. */
+	private static final int CHECKPOINT_ROUND = 4096;
+
+	/** Paths of the files restored from a checkpoint, which are not indexed again. */
+	private HashSet<String> indexedBefore = new HashSet<String>();
+
+	/** Files and directories given to expectFiles, which processFiles does not count again. */
+	private final HashSet<File> expected = new HashSet<File>();
+
 
 	/* ----------------------------------------------- */
 
@@ -56,11 +102,132 @@ public class Indexer {
 		index = new HashedIndex();
 	}
 
+	/**
+	 *  Initializes the indexer with an index that has been created by
+	 *  one of the methods below.
+	 */
+	private Indexer( Index index ) {
+		this.index = index;
+	}
+
+	/**
+	 *  Returns an indexer of a HashedIndex that keeps its postings as
+	 *  given by @code{storage} (see HashedIndex): the one saved as
+	 *  @code{name}, or a new one if there is none or name is null. New
+	 *  documents get docIDs after those of the saved index.
+	 */
+	public static Indexer hashed( String name, int storage ) {
+		Indexer indexer = new Indexer( ( name == null ) ? new HashedIndex( storage ) : new HashedIndex( name, storage ));
+		indexer.lastDocID = Index.docs.size();
+		return indexer;
+	}
+
+	/** 
+	 *  Returns an indexer of a MegaIndex.
+	 */
+	public static Indexer mega( LinkedList<String> indexfiles ) {
+		return new Indexer( new MegaIndex( indexfiles ));
+	}
+
+	/** 
+	 *  Returns an indexer of a BlockIndex, which keeps about
+	 *  @code{memoryBudget} bytes of postings in memory: the one saved
+	 *  as @code{name}, or a new one if name is null. New documents get
+	 *  docIDs after those of the saved index.
+	 */
+	public static Indexer block( String name, long memoryBudget ) {
+		Indexer indexer = new Indexer( ( name == null ) ? new BlockIndex( memoryBudget ) : new BlockIndex( name, memoryBudget ));
+		indexer.lastDocID = Index.docs.size();
+		return indexer;
+	}
+
 	/** 
-	 *  Initializes the index as a MegaIndex.
+	 *  Returns an indexer of a SegmentIndex: the one saved as
+	 *  @code{name}, or a new one if name is null. New documents get
+	 *  docIDs after those of the saved index.
+	 */
+	public static Indexer segment( String name ) {
+		Indexer indexer = new Indexer( ( name == null ) ? new SegmentIndex() : new SegmentIndex( name ));
+		indexer.lastDocID = Index.docs.size();
+		return indexer;
+	}
+
+
+	/**
+	 *  Sets the number of threads used to index files. With more than
+	 *  one thread, files are indexed in parallel into partial indexes
+	 *  which are then merged. The result is the same as with one thread.
+	 *  This only applies to a HashedIndex; a MegaIndex is always built
+	 *  by one thread.
+	 */
+	public void setNumThreads( int n ) {
+		if ( n < 1 ) {
+			throw new IllegalArgumentException( "Number of threads must be positive: " + n );
+		}
+		numThreads = n;
+	}
+
+
+	/**
+	 *  Sets whether every file should be logged as it is indexed.
+	 */
+	public void setVerbose( boolean verbose ) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 *  Makes processFiles write a checkpoint of the index to @code{file}
+	 *  every @code{intervalMillis} milliseconds (between documents), so
+	 *  that an indexing run that is stopped can be resumed. Not supported
+	 *  for a MegaIndex.
+	 */
+	public void setCheckpoints( File file, long intervalMillis ) {
+		checkpointFile = file;
+		checkpointMillis = intervalMillis;
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	/**
+	 *  Restores the index from the checkpoint file, if there is one.
+	 *  The files in the checkpoint are then skipped by processFiles.
+	 *  Returns true if a checkpoint was restored.
+	 */
+	public boolean resume() throws IOException {
+		if ( checkpointFile == null || !Checkpoint.load( index, checkpointFile )) {
+			return false;
+		}
+		DocumentTable docs = index.docs;
+		for ( int slot=0; slot<docs.size(); slot++ ) {
+			indexedBefore.add( docs.name( docs.docIDAt( slot )));
+		}
+		lastDocID = docs.size();
+		return true;
+	}
+
+	/**
+	 *  Stops writing checkpoints, and deletes the checkpoint file since
+	 *  the indexing run is complete.
 	 */
-	public Indexer( LinkedList<String> indexfiles ) {
-		index = new MegaIndex( indexfiles );
+	public void finishCheckpoints() {
+		if ( checkpointFile != null ) {
+			checkpointFile.delete();
+			checkpointFile = null;
+		}
+		indexedBefore.clear();
+	}
+
+	/** Writes a checkpoint of the index, if it is time for one. */
+	private void checkpointIfDue() {
+		if ( checkpointFile == null || System.currentTimeMillis() - lastCheckpoint < checkpointMillis ) {
+			return;
+		}
+		try {
+			Checkpoint.save( index, checkpointFile );
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		lastCheckpoint = System.currentTimeMillis();
 	}
 
 
@@ -72,6 +239,61 @@ public class Indexer {
 	 *  all its files and subdirectories are recursively processed.
 	 */
 	public void processFiles( File f ) {
+		stats.start();
+		boolean counted = expected.remove( f );
+		try {
+			if ( numThreads > 1 && index instanceof HashedIndex ) {
+				processFilesInParallel( f, !counted );
+			} else {
+				if ( !counted ) {
+					countFiles( f );
+				}
+				processFilesSequentially( f );
+			}
+		}
+		finally {
+			stopPdfExtractor();
+		}
+	}
+
+	/**
+	 *  Tells the statistics about the files at or below @code{f}, so that
+	 *  the estimated time left covers them before processFiles( f ) is
+	 *  called. When several directories are indexed, call this for all
+	 *  of them first. Otherwise processFiles counts the files of each
+	 *  directory only as it starts on it.
+	 */
+	public void expectFiles( File f ) {
+		if ( expected.add( f )) {
+			countFiles( f );
+		}
+	}
+
+	/**
+	 *  Tells the statistics about the files at or below @code{f} that
+	 *  are about to be indexed.
+	 */
+	private void countFiles( File f ) {
+		if ( !f.canRead() ) {
+			return;
+		}
+		if ( f.isDirectory() ) {
+			String[] fs = f.list();
+			if ( fs != null ) {
+				for ( int i=0; i<fs.length; i++ ) {
+					countFiles( new File( f, fs[i] ));
+				}
+			}
+		}
+		else if ( !indexedBefore.contains( f.getPath() )) {
+			stats.expect( 1, f.length() );
+		}
+	}
+
+	/**
+	 *  Indexes the file @code{f}, or the files below it, one by one.
+	 */
+	private void processFilesSequentially( File f ) {
 		// do not try to index fs that cannot be read
 		if ( f.canRead() ) {
 			if ( f.isDirectory() ) {
@@ -79,15 +301,21 @@ public class Indexer {
 				// an IO error could occur
 				if ( fs != null ) {
 					for ( int i=0; i<fs.length; i++ ) {
-						processFiles( new File( f, fs[i] ));
+						processFilesSequentially( new File( f, fs[i] ));
 					}
 				}
 			} else {
-				System.err.println( "Indexing " + f.getPath() );
+				if ( indexedBefore.contains( f.getPath() )) {
+					// Restored from a checkpoint
+					return;
+				}
+				if ( verbose ) {
+					System.err.println( "Indexing " + f.getPath() );
+				}
 				// First register the document and get a docID
 				int docID;
-				if ( index instanceof HashedIndex ) {
-					// For HashedIndex, use integers.
+				if ( !(index instanceof MegaIndex) ) {
+					// For HashedIndex and BlockIndex, use integers.
 					docID = generateDocID();
 				}
 				else {
@@ -99,60 +327,117 @@ public class Indexer {
 						docID = generateDocID( f.getPath() );
 					}
 				}
-				index.docIDs.put( "" + docID, f.getPath() );
-				try {
-					//  Read the first few bytes of the file to see if it is 
-					// likely to be a PDF 
-					Reader reader = new FileReader( f );
-					char[] buf = new char[4];
-					reader.read( buf, 0, 4 );
-					if ( buf[0] == '%' && buf[1]=='P' && buf[2]=='D' && buf[3]=='F' ) {
-						// We assume this is a PDF file
-						try {
-							String contents = extractPDFContents( f );
-							reader = new StringReader( contents );
-						}
-						catch ( IOException e ) {
-							// Perhaps it wasn't a PDF file after all
-							reader = new FileReader( f );
-						}
-					}
-					else {
-						// We hope this is ordinary text
-						reader = new FileReader( f );
-					}
-					SimpleTokenizer tok = new SimpleTokenizer( reader );
-					int offset = 0;
-					while ( tok.hasMoreTokens() ) {
-						insertIntoIndex( docID, tok.nextToken(), offset++ );
-					}
-					index.docLengths.put( "" + docID, offset );
-					reader.close();
+				index.docs.add( docID, f.getPath() );
+				int length = indexFile( f, docID, index );
+				if ( length >= 0 ) {
+					index.docs.setLength( docID, length );
 				}
-				catch ( IOException e ) {
-					e.printStackTrace();
+				checkpointIfDue();
+			}
+		}
+	}
+
+
+	/**
+	 *  Tokenizes the file @code{f} as document @code{docID} into
+	 *  @code{target}. Returns the number of tokens, or -1 if the file
+	 *  could not be read.
+	 */
+	private int indexFile( File f, int docID, Index target ) {
+		Reader reader = openQuietly( f );
+		return ( reader == null ) ? -1 : indexFile( reader, docID, target );
+	}
+
+	/**
+	 *  Tokenizes the text from @code{reader} as document @code{docID}
+	 *  into @code{target}, and closes the reader. Returns the number of
+	 *  tokens, or -1 if the text could not be read.
+	 */
+	private int indexFile( Reader reader, int docID, Index target ) {
+		IndexingStats.TimedReader timed = new IndexingStats.TimedReader( reader );
+		long start = System.nanoTime();
+		long sampledNanos = 0;
+		try {
+			SimpleTokenizer tok = new SimpleTokenizer( timed );
+			int offset = 0;
+			while ( tok.next() ) {
+				boolean sample = ( offset % INSERT_SAMPLE == 0 );
+				long t = sample ? System.nanoTime() : 0;
+				// The index looks the token up in place, and only copies a
+				// new term
+				target.insert( tok.token(), docID, offset );
+				if ( sample ) {
+					sampledNanos += System.nanoTime() - t;
 				}
+				offset++;
 			}
+			int samples = ( offset + INSERT_SAMPLE - 1 ) / INSERT_SAMPLE;
+			long insertNanos = ( samples == 0 ) ? 0 : sampledNanos * offset / samples;
+			stats.addDocument( offset, System.nanoTime() - start, timed.nanos, insertNanos );
+			return offset;
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+			return -1;
+		}
+		finally {
+			try {
+				reader.close();
+			}
+			catch ( IOException e ) {}
 		}
 	}
 
-	
-	/* ----------------------------------------------- */
 
+	/**
+	 *  Opens the file @code{f} for tokenizing. The file is read (or
+	 *  mapped) once, and its text decoded from the bytes in memory. The
+	 *  text of a PDF file is extracted by the PDF extractor as it is being
+	 *  read, so this returns before the PDF has been parsed. Returns null
+	 *  (after printing the error) if the file could not be read.
+	 */
+	private Reader openQuietly( File f ) {
+		try {
+			long start = System.nanoTime();
+			ByteBuffer contents = FileContents.read( f );
+			stats.addRead( contents.remaining(), System.nanoTime() - start );
+			//  Look at the first few bytes of the file to see if it is 
+			// likely to be a PDF 
+			if ( FileContents.isPDF( contents )) {
+				// We assume this is a PDF file
+				return pdfExtractor().extract( contents, CHARSET );
+			}
+			else {
+				// We hope this is ordinary text
+				return FileContents.reader( contents, CHARSET );
+			}
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+			return null;
+		}
+	}
 
 	/**
-	 *  Extracts the textual contents from a PDF file as one long string.
+	 *  Returns the PDF extractor, and starts it (with as many workers as
+	 *  there are indexing threads) the first time.
 	 */
-	public String extractPDFContents( File f ) throws IOException {
-		FileInputStream fi = new FileInputStream( f );
-		PDFParser parser = new PDFParser( fi );   
-		parser.parse();   
-		fi.close();
-		COSDocument cd = parser.getDocument();   
-		PDFTextStripper stripper = new PDFTextStripper();   
-		String result = stripper.getText( new PDDocument( cd ));  
-		cd.close();
-		return result;
+	private synchronized PDFExtractor pdfExtractor() {
+		if ( pdfExtractor == null ) {
+			pdfExtractor = new PDFExtractor( numThreads, stats );
+		}
+		return pdfExtractor;
+	}
+
+	/**
+	 *  Stops the workers of the PDF extractor, if it has been started.
+	 *  The next PDF file starts a new one.
+	 */
+	private synchronized void stopPdfExtractor() {
+		if ( pdfExtractor != null ) {
+			pdfExtractor.shutdown();
+			pdfExtractor = null;
+		}
 	}
 
 
@@ -160,10 +445,174 @@ public class Indexer {
 
 
 	/**
-	 *  Indexes one token.
+	 *  Indexes the file @code{f} (recursively, if it is a directory) with
+	 *  several threads. The files are first listed in the order
+	 *  processFiles would visit them and given docIDs in that order.
+	 *  Runs of consecutive files, and so of consecutive docIDs, are then
+	 *  indexed into partial indexes by a pool of threads, and the partial
+	 *  indexes are appended to the index in docID order. This gives the
+	 *  same postings as indexing the files one by one. With checkpoints,
+	 *  this is done in rounds of CHECKPOINT_ROUND files, so that a
+	 *  checkpoint can be written between rounds. So it is for a
+	 *  compressed index, so that the partial indexes, which are not
+	 *  compressed, never hold more than a round. The files are counted
+	 *  in the statistics first, unless @code{count} is false.
 	 */
-	public void insertIntoIndex( int docID, String token, int offset ) {
-		index.insert( token, docID, offset );
+	private void processFilesInParallel( File f, boolean count ) {
+		ForkJoinPool pool = new ForkJoinPool( numThreads );
+		try {
+			List<File> files = pool.invoke( new DirectoryWalk( f ));
+			if ( !indexedBefore.isEmpty() ) {
+				List<File> remaining = new ArrayList<File>();
+				for ( File file : files ) {
+					if ( !indexedBefore.contains( file.getPath() )) {
+						remaining.add( file );
+					}
+				}
+				files = remaining;
+			}
+			if ( count ) {
+				long bytes = 0;
+				for ( File file : files ) {
+					bytes += file.length();
+				}
+				stats.expect( files.size(), bytes );
+			}
+			boolean rounds = ( checkpointFile != null || ((HashedIndex)index).isCompressed() );
+			int round = rounds ? CHECKPOINT_ROUND : files.size();
+			for ( int from=0; from<files.size(); from+=round ) {
+				indexInParallel( pool, files.subList( from, Math.min( files.size(), from+round )));
+				checkpointIfDue();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 *  Gives @code{files} docIDs, indexes them into partial indexes on
+	 *  @code{pool} and appends those to the index.
+	 */
+	private void indexInParallel( ForkJoinPool pool, List<File> files ) {
+		int firstDocID = lastDocID;
+		for ( File file : files ) {
+			index.docs.add( generateDocID(), file.getPath() );
+		}
+
+		int numChunks = Math.min( files.size(), numThreads * CHUNKS_PER_THREAD );
+		HashedIndex[] partials = new HashedIndex[numChunks];
+		int[] lengths = new int[files.size()];
+		RecursiveAction[] tasks = new RecursiveAction[numChunks];
+		for ( int c=0; c<numChunks; c++ ) {
+			int from = (int)( (long)c * files.size() / numChunks );
+			int to = (int)( (long)(c+1) * files.size() / numChunks );
+			tasks[c] = new IndexChunk( files, firstDocID, from, to, partials, c, lengths );
+		}
+		pool.invoke( new RecursiveAction() {
+				protected void compute() {
+					invokeAll( tasks );
+				}
+			});
+
+		HashedIndex hashedIndex = (HashedIndex)index;
+		for ( int c=0; c<numChunks; c++ ) {
+			hashedIndex.addAll( partials[c] );
+			partials[c] = null;
+		}
+		for ( int i=0; i<lengths.length; i++ ) {
+			if ( lengths[i] >= 0 ) {
+				index.docs.setLength( firstDocID + i, lengths[i] );
+			}
+		}
+	}
+
+
+	/**
+	 *  Lists the readable files under a directory in the order
+	 *  processFiles visits them. Subdirectories are listed in parallel.
+	 */
+	private static class DirectoryWalk extends RecursiveTask<List<File>> {
+		private final File f;
+
+		DirectoryWalk( File f ) {
+			this.f = f;
+		}
+
+		protected List<File> compute() {
+			List<File> files = new ArrayList<File>();
+			// do not try to index fs that cannot be read
+			if ( !f.canRead() ) {
+				return files;
+			}
+			if ( !f.isDirectory() ) {
+				files.add( f );
+				return files;
+			}
+			String[] fs = f.list();
+			// an IO error could occur
+			if ( fs == null ) {
+				return files;
+			}
+			// Fork the subdirectories, and fill in their files in place
+			Object[] children = new Object[fs.length];
+			for ( int i=0; i<fs.length; i++ ) {
+				File child = new File( f, fs[i] );
+				if ( child.isDirectory() ) {
+					children[i] = new DirectoryWalk( child ).fork();
+				}
+				else {
+					children[i] = child;
+				}
+			}
+			for ( int i=0; i<fs.length; i++ ) {
+				if ( children[i] instanceof DirectoryWalk ) {
+					files.addAll( ((DirectoryWalk)children[i]).join() );
+				}
+				else if ( ((File)children[i]).canRead() ) {
+					files.add( (File)children[i] );
+				}
+			}
+			return files;
+		}
+	}
+
+
+	/**
+	 *  Indexes files[from..to), which have the docIDs firstDocID+from
+	 *  and on, into a partial index of their own.
+	 */
+	private class IndexChunk extends RecursiveAction {
+		private final List<File> files;
+		private final int firstDocID, from, to;
+		private final HashedIndex[] partials;
+		private final int chunk;
+		private final int[] lengths;
+
+		IndexChunk( List<File> files, int firstDocID, int from, int to, HashedIndex[] partials, int chunk, int[] lengths ) {
+			this.files = files;
+			this.firstDocID = firstDocID;
+			this.from = from;
+			this.to = to;
+			this.partials = partials;
+			this.chunk = chunk;
+			this.lengths = lengths;
+		}
+
+		protected void compute() {
+			HashedIndex partial = new HashedIndex();
+			Reader next = openQuietly( files.get( from ));
+			for ( int i=from; i<to; i++ ) {
+				Reader reader = next;
+				// Let a PDF extractor start on the next file while this
+				// one is tokenized
+				next = ( i+1 < to ) ? openQuietly( files.get( i+1 )) : null;
+				if ( verbose ) {
+					System.err.println( "Indexing " + files.get( i ).getPath() );
+				}
+				lengths[i] = ( reader == null ) ? -1 : indexFile( reader, firstDocID + i, partial );
+			}
+			partials[chunk] = partial;
+		}
 	}
 }
-		
@@ -0,0 +1,276 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *   Counts what an Indexer has done and where its time went, for
+ *   reporting progress on the console and through JMX.
+ *
+ *   The counters are updated by all indexing threads (once per file, not
+ *   per token), so they are LongAdders. Rates are averages since
+ *   indexing started, except in the console report, which also shows
+ *   the rate since the previous report.
+ */
+public class IndexingStats implements IndexingStatsMXBean {
+
+	/** The name the statistics are registered under in JMX. */
+	public static final String OBJECT_NAME = "ir:type=IndexingStats";
+
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder expectedDocuments = new LongAdder();
+	private final LongAdder expectedBytes = new LongAdder();
+
+	private final LongAdder ioNanos = new LongAdder();
+	private final LongAdder pdfNanos = new LongAdder();
+	private final LongAdder decodeNanos = new LongAdder();
+	private final LongAdder tokenizeNanos = new LongAdder();
+	private final LongAdder insertNanos = new LongAdder();
+
+	/** When indexing started, or 0 if it has not. */
+	private volatile long startNanos = 0;
+
+	private ScheduledExecutorService reporter;
+
+	/** Documents and bytes at the previous console report, and its time. */
+	private long lastDocuments, lastBytes, lastReportNanos;
+
+
+	/** Marks the start of indexing, unless it has already started. */
+	synchronized void start() {
+		if (startNanos == 0)
+			startNanos = System.nanoTime();
+	}
+
+	/** Adds files that are about to be indexed, for the time remaining. */
+	void expect(long files, long fileBytes) {
+		expectedDocuments.add(files);
+		expectedBytes.add(fileBytes);
+	}
+
+	/** Counts a file of fileBytes bytes, which took nanos to read. */
+	void addRead(long fileBytes, long nanos) {
+		bytes.add(fileBytes);
+		ioNanos.add(nanos);
+	}
+
+	void addPdf(long nanos) {
+		pdfNanos.add(nanos);
+	}
+
+	/**
+	 *  Counts an indexed document of numTokens tokens. It took
+	 *  totalNanos to tokenize and insert, of which decode were spent
+	 *  waiting for text and insert inserting into the index.
+	 */
+	void addDocument(long numTokens, long totalNanos, long decode, long insert) {
+		documents.increment();
+		tokens.add(numTokens);
+		decodeNanos.add(decode);
+		insertNanos.add(insert);
+		tokenizeNanos.add(Math.max(0, totalNanos - decode - insert));
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	public long getTokens() {
+		return tokens.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	public long getExpectedDocuments() {
+		return expectedDocuments.sum();
+	}
+
+	public long getExpectedBytes() {
+		return expectedBytes.sum();
+	}
+
+	public double getDocumentsPerSecond() {
+		return perSecond(getDocuments());
+	}
+
+	public double getTokensPerSecond() {
+		return perSecond(getTokens());
+	}
+
+	public double getBytesPerSecond() {
+		return perSecond(getBytes());
+	}
+
+	public long getIoMillis() {
+		return ioNanos.sum() / 1000000;
+	}
+
+	public long getPdfMillis() {
+		return pdfNanos.sum() / 1000000;
+	}
+
+	public long getDecodeMillis() {
+		return decodeNanos.sum() / 1000000;
+	}
+
+	public long getTokenizeMillis() {
+		return tokenizeNanos.sum() / 1000000;
+	}
+
+	public long getInsertMillis() {
+		return insertNanos.sum() / 1000000;
+	}
+
+	public long getHeapUsedBytes() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	public long getHeapMaxBytes() {
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	/**
+	 *  Estimates the time remaining from the bytes still to be indexed
+	 *  and the rate so far, since the size of the files is a better
+	 *  guide than their number.
+	 */
+	public long getEstimatedSecondsRemaining() {
+		long left = getExpectedBytes() - getBytes();
+		double rate = getBytesPerSecond();
+		if (getExpectedBytes() == 0 || rate <= 0)
+			return -1;
+		return (long) (Math.max(0, left) / rate);
+	}
+
+	private double perSecond(long count) {
+		long start = startNanos;
+		if (start == 0)
+			return 0;
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return (seconds > 0) ? count / seconds : 0;
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  Makes the statistics visible through JMX, in place of any
+	 *  registered before.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Prints a report to out every periodMillis milliseconds. */
+	public synchronized void startReporting(final PrintStream out, long periodMillis) {
+		if (reporter != null)
+			return;
+		lastReportNanos = System.nanoTime();
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Indexing report");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		reporter.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					out.println(report());
+				}
+			}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops the reports, and prints a last one with the totals to out. */
+	public synchronized void stopReporting(PrintStream out) {
+		if (reporter == null)
+			return;
+		reporter.shutdownNow();
+		reporter = null;
+		out.println(report());
+	}
+
+	/** A line with the progress since the previous report, and in total. */
+	synchronized String report() {
+		long now = System.nanoTime();
+		long docs = getDocuments();
+		long b = getBytes();
+		double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("Indexed %d documents, %d tokens, %.1f MB", docs, getTokens(), b / 1e6));
+		s.append(String.format(" | now %.1f docs/s, %.1f MB/s", (docs - lastDocuments) / seconds, (b - lastBytes) / 1e6 / seconds));
+		s.append(String.format(" | avg %.1f docs/s, %.0f tokens/s, %.1f MB/s",
+			getDocumentsPerSecond(), getTokensPerSecond(), getBytesPerSecond() / 1e6));
+		s.append(String.format(" | io %.1fs pdf %.1fs decode %.1fs tokenize %.1fs insert %.1fs",
+			getIoMillis() / 1e3, getPdfMillis() / 1e3, getDecodeMillis() / 1e3,
+			getTokenizeMillis() / 1e3, getInsertMillis() / 1e3));
+		s.append(String.format(" | heap %d/%d MB", getHeapUsedBytes() >> 20, getHeapMaxBytes() >> 20));
+		long eta = getEstimatedSecondsRemaining();
+		if (eta >= 0)
+			s.append(String.format(" | %d:%02d:%02d left", eta / 3600, eta / 60 % 60, eta % 60));
+		lastDocuments = docs;
+		lastBytes = b;
+		lastReportNanos = now;
+		return s.toString();
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/** A Reader that measures the time spent in read(). */
+	static class TimedReader extends Reader {
+		private final Reader in;
+
+		/** Time spent in read() so far. */
+		long nanos = 0;
+
+		TimedReader(Reader in) {
+			this.in = in;
+		}
+
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return in.read(cbuf, off, len);
+			}
+			finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
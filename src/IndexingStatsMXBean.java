@@ -0,0 +1,41 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+/**
+ *   The indexing metrics of IndexingStats, as seen through JMX.
+ *   Times are the sums over all indexing threads, in milliseconds.
+ */
+public interface IndexingStatsMXBean {
+
+	public long getDocuments();
+	public long getTokens();
+	public long getBytes();
+
+	/** Number of documents (and bytes) to be indexed in all, as far as known. */
+	public long getExpectedDocuments();
+	public long getExpectedBytes();
+
+	public double getDocumentsPerSecond();
+	public double getTokensPerSecond();
+	public double getBytesPerSecond();
+
+	/** Time spent reading files. */
+	public long getIoMillis();
+
+	/** Time the PDF extraction workers spent extracting text. */
+	public long getPdfMillis();
+
+	/** Time spent waiting for text: decoding it, or for a PDF worker. */
+	public long getDecodeMillis();
+
+	public long getTokenizeMillis();
+	public long getInsertMillis();
+
+	public long getHeapUsedBytes();
+	public long getHeapMaxBytes();
+
+	/** Estimated time until the expected files are indexed, or -1 if unknown. */
+	public long getEstimatedSecondsRemaining();
+}
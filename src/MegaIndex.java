@@ -11,11 +11,23 @@
 import com.larvalabs.megamap.MegaMapManager;
 import com.larvalabs.megamap.MegaMap;
 import com.larvalabs.megamap.MegaMapException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class MegaIndex implements Index {
@@ -37,6 +49,38 @@ public class MegaIndex implements Index {
 	/** The directory where to place index files on disk. */
 	private static final String path = "./index";
 
+	private PageRank pageRank;
+
+	/** 
+	 *  Postings inserted since the last flush, by the term IDs of
+	 *  bufferTerms. They are written to the MegaMap in batches, so that
+	 *  each term is read and written back once per batch rather than
+	 *  once per token.
+	 */
+	private PostingsList[] buffer = new PostingsList[1024];
+	private TermDictionary bufferTerms = new TermDictionary();
+
+	/** Number of tokens in the buffer. */
+	private int bufferedTokens = 0;
+
+	/** The buffer is flushed after a document once it holds this many tokens. */
+	private static final int BATCH_SIZE = 1 << 18;
+
+	/** Largest number of terms of an input in a sorted run written by merge. */
+	private static final int RUN_TERMS = 1 << 16;
+
+	/** A run is ended when its postings file gets this large. */
+	private static final long MAX_RUN_BYTES = 1L << 30;
+
+	/** Number of terms of each run sampled to split the terms into ranges. */
+	private static final int SAMPLES = 64;
+
+	/** Number of term ranges per thread that merge merges in parallel. */
+	private static final int RANGES_PER_THREAD = 4;
+
+	/** The docID of the document being indexed. */
+	private int currentDocID;
+
 
 	/**
 	 *  Create a new index and invent a name for it.
@@ -68,13 +112,9 @@ public class MegaIndex implements Index {
 			else if ( indexfiles.size() == 1 ) {
 				// Read the specified index from file
 				index = manager.createMegaMap( indexfiles.get(0), path, true, false );
-				HashMap<String,String> m = (HashMap<String,String>)index.get( "..docIDs" );
-				if ( m == null ) {
+				if ( !readDocs( index ) ) {
 					System.err.println( "Couldn't retrieve docIDs" );
 				}
-				else {
-					docIDs.putAll( m );
-				}
 			}
 			else {
 				// Merge the specified index files into a large index.
@@ -110,79 +150,308 @@ public class MegaIndex implements Index {
 	 *   the JVM, otherwise the index files might become corrupted.
 	 */
 	public void cleanup() {
-		// Save the docID-filename association list in the MegaMap as well
-		index.put("..docIDs", docIDs);
+		flush();
+		// Save the document table in the MegaMap as well
+		index.put("..docs", docs);
 		// Shutdown the MegaMap thread gracefully
 		manager.shutdown();
 	}
 
 	/**
-	 *  Merges several indexes into one.
+	 *  Removes the postings of deleted documents from the MegaMap.
+	 */
+	public void compact() {
+		flush();
+		try {
+			// Copy the keys, since the loop changes the map
+			for (Object key : index.getKeys().toArray()) {
+				String term = (String) key;
+				if (term.startsWith(".."))
+					continue;
+				PostingsList list = (PostingsList) index.get(term);
+				PostingsList live = list.withoutDeleted(docs);
+				if (live.size() == 0)
+					index.remove(term);
+				else if (live != list) {
+					live.maxTfNorm();
+					index.put(term, live);
+				}
+			}
+		} catch (MegaMapException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Writes the buffered postings to the MegaMap. */
+	public void finishIndexing() {
+		flush();
+	}
+
+	/**
+	 *  Not supported: the MegaMap is only written out in a consistent
+	 *  state when it is shut down, by cleanup().
+	 */
+	public void writeCheckpoint(ObjectOutputStream out) throws IOException {
+		throw new IOException("Checkpoints are not supported for a MegaIndex");
+	}
+
+	public void readCheckpoint(ObjectInputStream in) throws IOException {
+		throw new IOException("Checkpoints are not supported for a MegaIndex");
+	}
+
+	/**
+	 *  Merges several indexes into one, writing the merged postings of
+	 *  each term to the new map exactly once.
+	 *
+	 *  The terms of each input are first read in batches of RUN_TERMS,
+	 *  and each batch is sorted and written with its postings as a
+	 *  segment (see Segment), a run, with one thread per input. The runs
+	 *  are then merged term by term, in sorted order, by a k-way merge
+	 *  like that of SegmentIndex, and the postings of a term found in
+	 *  several runs are combined by PostingsList.union. The terms are
+	 *  split into ranges, by terms sampled from the runs, which are
+	 *  merged in parallel. Only a batch of terms, and then the current
+	 *  term of each run, is held in memory, and the runs are deleted
+	 *  afterwards.
 	 */
 	MegaMap merge(MegaMap[] indexes) {
+		String name = generateFilename();
+		final List<Segment> runs = Collections.synchronizedList(new ArrayList<Segment>());
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 		try {
-			MegaMap res = manager.createMegaMap(generateFilename(), path, true, false);
-			for (MegaMap map : indexes)
-				combineMaps(res, map);
+			for (MegaMap map : indexes) {
+				if (!readDocs(map))
+					System.err.println("Couldn't retrieve docIDs");
+			}
+			final MegaMap res = manager.createMegaMap(name, path, true, false);
+
+			RecursiveAction[] spills = new RecursiveAction[indexes.length];
+			for (int k = 0; k < indexes.length; k++) {
+				final MegaMap map = indexes[k];
+				final String runName = name + ".run" + k;
+				spills[k] = new RecursiveAction() {
+						protected void compute() {
+							try {
+								writeRuns(map, runName, runs);
+							} catch (Exception e) {
+								throw new RuntimeException("Couldn't write merge runs", e);
+							}
+						}
+					};
+			}
+			invokeAll(pool, spills);
+
+			final List<Segment> sorted = new ArrayList<Segment>(runs);
+			final String[] bounds = splitPoints(sorted, pool.getParallelism() * RANGES_PER_THREAD);
+			RecursiveAction[] merges = new RecursiveAction[bounds.length + 1];
+			for (int r = 0; r <= bounds.length; r++) {
+				final String lo = (r == 0) ? null : bounds[r - 1];
+				final String hi = (r == bounds.length) ? null : bounds[r];
+				merges[r] = new RecursiveAction() {
+						protected void compute() {
+							mergeRange(sorted, lo, hi, res);
+						}
+					};
+			}
+			invokeAll(pool, merges);
 			return res;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 			return null;
 		}
+		finally {
+			pool.shutdown();
+			for (Segment run : runs)
+				run.delete();
+		}
 	}
 
-	/** Mutates target map by adding from-entries. */
-	private void combineMaps(MegaMap map, MegaMap from) {
-		Iterator<String> it = from.getKeys().iterator();
-
-		while (it.hasNext()) {
-			String key = it.next();
+	/** Runs tasks on pool, and waits for all of them to finish. */
+	private static void invokeAll(ForkJoinPool pool, final RecursiveAction[] tasks) {
+		pool.invoke(new RecursiveAction() {
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+	}
 
-			if (key.equals("..docIDs")) {
-				try {
-					HashMap<String,String> m = (HashMap<String,String>) from.get("..docIDs");
-					docIDs.putAll(m);
-				} catch (Exception e) {
-					System.err.println("Couldn't retrieve docIDs");
+	/**
+	 *  Writes the terms of map, with their postings, as sorted runs of
+	 *  at most RUN_TERMS terms called name.0, name.1 and so on, and adds
+	 *  them to runs. A run is also ended when its postings file reaches
+	 *  MAX_RUN_BYTES.
+	 */
+	private static void writeRuns(MegaMap map, String name, List<Segment> runs) throws IOException, MegaMapException {
+		File dir = new File(path);
+		Iterator<?> keys = map.getKeys().iterator();
+		String[] batch = new String[RUN_TERMS];
+		int n = 0;
+		while (keys.hasNext()) {
+			int size = 0;
+			while (size < RUN_TERMS && keys.hasNext()) {
+				String term = (String) keys.next();
+				if (!term.startsWith(".."))
+					batch[size++] = term;
+			}
+			Arrays.sort(batch, 0, size);
+			Segment.Writer out = null;
+			for (int i = 0; i < size; i++) {
+				PostingsList list = (PostingsList) map.get(batch[i]);
+				if (list == null)
+					continue;
+				if (out == null)
+					out = new Segment.Writer(dir, name + "." + n++);
+				out.add(batch[i], list, null);
+				if (out.bytes() >= MAX_RUN_BYTES) {
+					runs.add(out.close());
+					out = null;
 				}
-				continue;
 			}
+			if (out != null)
+				runs.add(out.close());
+			Arrays.fill(batch, 0, size, null);
+		}
+	}
 
-			PostingsList fromVal = null;
-			try {
-				fromVal = (PostingsList) from.get(key);
-			} catch (MegaMapException e) {
-				continue;
+	/**
+	 *  Returns up to ranges - 1 distinct terms, in sorted order, that
+	 *  split the terms of the runs into ranges of about the same number
+	 *  of terms. Up to SAMPLES terms of each run are looked at.
+	 */
+	private static String[] splitPoints(List<Segment> runs, int ranges) {
+		List<String> samples = new ArrayList<String>();
+		for (Segment run : runs) {
+			int step = Math.max(1, run.size() / SAMPLES);
+			for (int i = step / 2; i < run.size(); i += step)
+				samples.add(run.term(i));
+		}
+		Collections.sort(samples);
+		List<String> bounds = new ArrayList<String>();
+		for (int r = 1; r < ranges; r++) {
+			if (samples.isEmpty())
+				break;
+			String bound = samples.get((int) ((long) r * samples.size() / ranges));
+			if (bounds.isEmpty() || !bounds.get(bounds.size() - 1).equals(bound))
+				bounds.add(bound);
+		}
+		return bounds.toArray(new String[bounds.size()]);
+	}
+
+	/**
+	 *  Merges the postings of the terms of runs from lo (inclusive) to hi
+	 *  (exclusive) and puts them in res. A null lo or hi leaves the range
+	 *  open at that end.
+	 */
+	private static void mergeRange(List<Segment> runs, String lo, String hi, MegaMap res) {
+		PriorityQueue<Segment.TermCursor> queue = new PriorityQueue<Segment.TermCursor>();
+		for (int k = 0; k < runs.size(); k++) {
+			Segment run = runs.get(k);
+			int from = (lo == null) ? 0 : run.find(lo);
+			if (from < 0)
+				from = -from - 1;
+			Segment.TermCursor c = new Segment.TermCursor(run, k, from);
+			if (c.next() && (hi == null || c.term.compareTo(hi) < 0))
+				queue.add(c);
+		}
+
+		List<PostingsList> lists = new ArrayList<PostingsList>();
+		while (!queue.isEmpty()) {
+			String term = queue.peek().term;
+			lists.clear();
+			while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+				Segment.TermCursor c = queue.poll();
+				lists.add(c.postings());
+				if (c.next() && (hi == null || c.term.compareTo(hi) < 0))
+					queue.add(c);
 			}
-			try {
-				PostingsList mapVal = (PostingsList) map.get(key);
-				map.put(key, mapVal.unionWith(fromVal));
-			} catch (Exception e) {
-				map.put(key, fromVal);
+			PostingsList merged = lists.get(0);
+			if (lists.size() > 1) {
+				// The bound of the union is the largest of the runs' bounds
+				double bound = 0;
+				for (PostingsList list : lists)
+					bound = Math.max(bound, list.maxTfNorm);
+				merged = PostingsList.union(lists.toArray(new PostingsList[lists.size()]));
+				merged.maxTfNorm = bound;
+			}
+			synchronized (res) {
+				res.put(term, merged);
 			}
 		}
 	}
 
 	/**
-	 *  Inserts this token in the index.
+	 *  Adds the documents stored in map to the document table. Indexes
+	 *  saved before the document table existed only have a map from
+	 *  docID strings to file names. Returns false if neither was found.
 	 */
-	public void insert(String token, int docID, int offset) {
-		PostingsList list = null;
-
+	private boolean readDocs(MegaMap map) {
 		try {
-			list = (PostingsList) index.get(token);
-		} catch(MegaMapException e) {}
+			DocumentTable table = (DocumentTable) map.get("..docs");
+			if (table != null) {
+				docs.addAll(table);
+				return true;
+			}
+			HashMap<String,String> m = (HashMap<String,String>) map.get("..docIDs");
+			if (m != null) {
+				for (Map.Entry<String,String> e : m.entrySet())
+					docs.add(Integer.parseInt(e.getKey()), e.getValue());
+				return true;
+			}
+		} catch (Exception e) {}
+		return false;
+	}
 
+	/**
+	 *  Inserts this token in the index. The token is buffered, and the
+	 *  buffer is written to the MegaMap between documents once it is full.
+	 */
+	public void insert(CharSequence token, int docID, int offset) {
+		if (docID != currentDocID) {
+			if (bufferedTokens >= BATCH_SIZE)
+				flush();
+			currentDocID = docID;
+		}
+
+		int termID = bufferTerms.add(token);
+		if (termID == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		PostingsList list = buffer[termID];
 		if (list == null) {
 			list = new PostingsList();
-			index.put(token, list);
+			buffer[termID] = list;
 		}
-
-		//System.out.println("inserting " + token + ": " + docID + ":" + offset);
-
 		list.add(docID, offset);
-		//index.put(token, list); // TODO: necessary?
+		bufferedTokens++;
+	}
+
+	/**
+	 *  Writes the buffered postings to the MegaMap. The stored list of
+	 *  each term in the buffer is read once, has the buffered postings
+	 *  appended, and is put back, with its score bound (see
+	 *  PostingsList.maxTfNorm) brought up to date.
+	 */
+	private void flush() {
+		for (int t = 0; t < bufferTerms.size(); t++) {
+			String term = bufferTerms.term(t);
+			PostingsList list = null;
+			try {
+				list = (PostingsList) index.get(term);
+			} catch (MegaMapException ex) {}
+
+			if (list == null) {
+				list = buffer[t];
+				list.maxTfNorm();
+			} else {
+				double bound = Math.max(list.maxTfNorm(), buffer[t].maxTfNorm());
+				list.appendAll(buffer[t]);
+				list.maxTfNorm = bound;
+			}
+			index.put(term, list);
+			buffer[t] = null;
+		}
+		bufferTerms.clear();
+		bufferedTokens = 0;
 	}
 
 	/**
@@ -190,6 +459,8 @@ public class MegaIndex implements Index {
 	 *  if the term is not in the index.
 	 */
 	public PostingsList getPostings(String token) {
+		if (bufferedTokens > 0)
+			flush();
 		try {
 			PostingsList ret = (PostingsList) index.get(token);
 			if (ret == null) throw new Exception();
@@ -203,18 +474,27 @@ public class MegaIndex implements Index {
 	 *  Searches the index for postings matching the query in @code{searchterms}.
 	 */
 	public PostingsList search(LinkedList<String> searchterms, int queryType) {
-		PostingsList result = null;
-		//System.out.println(index.getKeys().size());
+		return search(searchterms, queryType, Integer.MAX_VALUE);
+	}
+
+	/**
+	 *  Searches the index for postings matching the query in @code{searchterms}.
+	 *  Ranked queries only return the k best documents.
+	 */
+	public PostingsList search(LinkedList<String> searchterms, int queryType, int k) {
+		if (queryType == Index.RANKED_QUERY)
+			return RankedSearch.search(this, pageRank, searchterms, k);
 
 		// Word queries
-		for (String term : searchterms) {
-			if (result == null)
-				result = getPostings(term);
-			else
-				result = result.intersect(getPostings(term), queryType == Index.PHRASE_QUERY);
-		}
+		if (queryType == Index.PHRASE_QUERY)
+			return QueryPlanner.phrase(this, searchterms);
+		if (queryType == Index.UNION_QUERY)
+			return QueryPlanner.union(this, searchterms);
+		return QueryPlanner.intersect(this, searchterms);
+	}
 
-		return (result == null) ? new PostingsList() : result;
+	public void setPageRank(PageRank p) {
+		this.pageRank = p;
 	}
 }
 
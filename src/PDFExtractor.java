@@ -0,0 +1,261 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.util.PDFTextStripper;
+
+/**
+ *   Extracts the text of PDF files on a pool of worker threads.
+ *
+ *   extract() hands a file to a worker and returns a Reader right away.
+ *   The worker passes the text on page by page (or in chunks of at most
+ *   CHUNK_LENGTH characters) through a small bounded queue, which the
+ *   Reader takes from. If the reader falls behind, the worker waits, so
+ *   at most QUEUE_CAPACITY chunks of extracted text wait to be read.
+ *   This does not bound the memory used for a document as a whole: the
+ *   file is read or mapped in full (see FileContents), and PDFBox parses
+ *   the whole document before the first page is stripped.
+ */
+public class PDFExtractor {
+
+	/** Largest number of characters passed on at a time. */
+	private static final int CHUNK_LENGTH = 8192;
+
+	/** Number of chunks of a document that may wait to be read. */
+	private static final int QUEUE_CAPACITY = 8;
+
+	/** Marks the end of the text in a queue. */
+	private static final char[] END = new char[0];
+
+	private final ExecutorService workers;
+
+	/** Where the time spent extracting is counted, or null. */
+	private final IndexingStats stats;
+
+	/**
+	 *  Creates a pool of numWorkers extraction threads, which count the
+	 *  time they spend extracting in stats (unless it is null).
+	 */
+	public PDFExtractor(int numWorkers, IndexingStats stats) {
+		this.stats = stats;
+		workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "PDF extraction");
+					// Don't keep the JVM alive for idle workers
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	}
+
+	/**
+	 *  Starts extracting the text of a PDF file with the given contents,
+	 *  and returns a Reader of the text. If the file turns out not to be
+	 *  a PDF file before any text has been extracted, the Reader reads
+	 *  the contents as plain text in charset instead. The Reader must be
+	 *  closed, so that the worker can stop if it has not been read to
+	 *  the end.
+	 */
+	public Reader extract(ByteBuffer contents, Charset charset) {
+		final PageReader reader = new PageReader(contents, charset);
+		workers.execute(new Runnable() {
+				public void run() {
+					long start = System.nanoTime();
+					reader.produce();
+					if (stats != null)
+						stats.addPdf(System.nanoTime() - start - reader.waitNanos);
+				}
+			});
+		return reader;
+	}
+
+	/** Stops the workers once the extractions already started are done. */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+
+	/**
+	 *  The consumer end of an extraction. produce() is run by a worker
+	 *  and fills the queue that read() empties.
+	 */
+	private static class PageReader extends Reader {
+		private final ByteBuffer contents;
+		private final Charset charset;
+		private final BlockingQueue<char[]> queue = new ArrayBlockingQueue<char[]>(QUEUE_CAPACITY);
+
+		/** The chunk being read, and the next character in it. */
+		private char[] chunk;
+		private int next = 0;
+
+		/** Set if the extraction failed, and then put in the queue as END. */
+		private volatile IOException error;
+
+		private volatile boolean closed = false;
+
+		/** Time the worker spent waiting for room in the queue. */
+		long waitNanos = 0;
+
+		/** true once any text has been returned by read(). */
+		private boolean started = false;
+
+		/** Reads the file as plain text, if it could not be parsed. */
+		private Reader fallback;
+
+		PageReader(ByteBuffer contents, Charset charset) {
+			this.contents = contents;
+			this.charset = charset;
+		}
+
+		/** Extracts the text of the file into the queue. */
+		void produce() {
+			QueueWriter writer = new QueueWriter();
+			try {
+				if (closed)
+					return;
+				PDFParser parser = new PDFParser(FileContents.inputStream(contents));
+				parser.parse();
+				COSDocument cd = parser.getDocument();
+				try {
+					new PageStripper().writeText(new PDDocument(cd), writer);
+					writer.flush();
+				}
+				finally {
+					cd.close();
+				}
+			} catch (IOException e) {
+				if (!closed)
+					error = e;
+			} catch (RuntimeException e) {
+				// PDFBox throws these for some malformed files
+				if (!closed)
+					error = new IOException(e);
+			}
+			put(END);
+		}
+
+		/** Puts c in the queue, waiting for room, unless the reader is closed. */
+		private void put(char[] c) {
+			long start = System.nanoTime();
+			try {
+				while (!closed) {
+					if (queue.offer(c, 100, TimeUnit.MILLISECONDS))
+						return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				waitNanos += System.nanoTime() - start;
+			}
+		}
+
+		/**
+		 *  Fills cbuf[off..off+len) unless the text ends first, so that
+		 *  the tokenizer gets as much text as it asks for at a time.
+		 */
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (fallback != null)
+				return fallback.read(cbuf, off, len);
+			int n = 0;
+			while (n < len) {
+				if (chunk == null || next == chunk.length) {
+					if (chunk == END)
+						break;
+					try {
+						chunk = queue.take();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					next = 0;
+					if (chunk == END && error != null) {
+						if (started || n > 0)
+							throw error;
+						// Perhaps it wasn't a PDF file after all
+						fallback = FileContents.reader(contents, charset);
+						return fallback.read(cbuf, off, len);
+					}
+					continue;
+				}
+				int count = Math.min(len - n, chunk.length - next);
+				System.arraycopy(chunk, next, cbuf, off + n, count);
+				next += count;
+				n += count;
+			}
+			if (n > 0)
+				started = true;
+			return (n == 0 && len > 0) ? -1 : n;
+		}
+
+		public void close() throws IOException {
+			closed = true;
+			// Let a waiting worker go on, so that it sees the reader is closed
+			queue.clear();
+			if (fallback != null)
+				fallback.close();
+		}
+
+
+		/** Passes the written text on to the queue in chunks. */
+		private class QueueWriter extends Writer {
+			private char[] buf = new char[CHUNK_LENGTH];
+			private int size = 0;
+
+			public void write(char[] cbuf, int off, int len) throws IOException {
+				while (len > 0) {
+					if (closed)
+						throw new IOException("Reader closed");
+					int count = Math.min(len, CHUNK_LENGTH - size);
+					System.arraycopy(cbuf, off, buf, size, count);
+					size += count;
+					off += count;
+					len -= count;
+					if (size == CHUNK_LENGTH)
+						flush();
+				}
+			}
+
+			public void flush() {
+				if (size == 0)
+					return;
+				put(Arrays.copyOf(buf, size));
+				size = 0;
+			}
+
+			public void close() {
+				flush();
+			}
+		}
+
+
+		/** Passes on the text of each page as soon as the page is done. */
+		private class PageStripper extends PDFTextStripper {
+			PageStripper() throws IOException {
+				super();
+			}
+
+			protected void endPage(PDPage page) throws IOException {
+				super.endPage(page);
+				output.flush();
+			}
+		}
+	}
+}
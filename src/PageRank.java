@@ -34,6 +34,9 @@ public class PageRank {
 	 */
 	public double[] rank;
 
+	/** Highest rank, or -1 if not yet computed. */
+	private double maxRank = -1;
+
 	/**
 	 *   Mapping from document names to document numbers.
 	 */
@@ -133,6 +136,18 @@ public class PageRank {
 		return (docID == null) ? null : new Double(rank[docID]);
 	}
 
+	/**
+	 * The highest page rank of any document.
+	 */
+	public double maxRank() {
+		if (maxRank < 0) {
+			maxRank = 0;
+			for (int i = 0; i < numDocs; i++)
+				maxRank = Math.max(maxRank, rank[i]);
+		}
+		return maxRank;
+	}
+
 	/*
 	 *   Computes the pagerank of each document.
 	 */
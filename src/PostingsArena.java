@@ -0,0 +1,307 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *   The postings of all terms of an off-heap HashedIndex, encoded in
+ *   blocks by PostingsCodec, as in CompressedPostings, but kept in
+ *   direct buffers outside the Java heap. The heap only holds a few
+ *   arrays indexed by term ID, so the garbage collector has next to
+ *   nothing to trace however large the index gets, and cursors read the
+ *   blocks where they are.
+ *
+ *   The blocks of a term are kept in a region of a chunk, which is
+ *   moved to a region twice as large when it is full. Regions are
+ *   powers of two in size, and a region that has been left is given to
+ *   the next term that needs one of that size. As in
+ *   CompressedPostings, new entries of a term are collected in a tail
+ *   on the heap until they fill a block. All tails are encoded before
+ *   the postings are read, and a short last block is decoded into the
+ *   tail again if more entries are added later. Entries must be added
+ *   in docID order.
+ */
+public class PostingsArena {
+	private static final int BLOCK_SIZE = PostingsCodec.BLOCK_SIZE;
+
+	/** Size of the direct buffers that regions are taken from. */
+	private static final int CHUNK_BYTES = 1 << 24;
+
+	/** Size of the first region of a term. */
+	private static final int MIN_REGION = 64;
+
+	/** The chunks, and the number of bytes taken from the last one. */
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private int chunkUsed = 0;
+
+	/**
+	 *  Regions that have been left, as chunk << 32 | offset, by log2 of
+	 *  their size (rounded down), and the number of them.
+	 */
+	private final long[][] free = new long[32][];
+	private final int[] numFree = new int[32];
+
+	/**
+	 *  The region of each term: its chunk (or -1 if it has none), offset
+	 *  and size, and the number of bytes of blocks in it.
+	 */
+	private int[] chunk = new int[0];
+	private int[] offset = new int[0];
+	private int[] capacity = new int[0];
+	private int[] used = new int[0];
+
+	/** Number of entries in the blocks of each term, and the docID of the last of them. */
+	private int[] size = new int[0];
+	private int[] lastDocID = new int[0];
+
+	/**
+	 *  Offset in the region of the last block of each term if it has
+	 *  fewer than BLOCK_SIZE entries, or -1, and the docID of the last
+	 *  entry before that block.
+	 */
+	private int[] shortBlock = new int[0];
+	private int[] shortBlockPrev = new int[0];
+
+	/** Entries of each term not yet encoded, or null. */
+	private PostingsList[] tails = new PostingsList[0];
+
+	/** True if some term has a tail. */
+	private boolean unsealed = false;
+
+	/**
+	 *  Largest tf / sqrt(document length) of any entry of each term, or
+	 *  NaN if it has not been computed since the postings last changed.
+	 */
+	private double[] maxTfNorm = new double[0];
+
+	/** Where blocks are encoded before they are copied to a region. */
+	private final PostingsCodec.Output encoded = new PostingsCodec.Output();
+
+	/** Number of term IDs there is room for. */
+	public int capacity() {
+		return chunk.length;
+	}
+
+	/** Makes room for term IDs below n. */
+	public void ensureCapacity(int n) {
+		int old = chunk.length;
+		if (n <= old)
+			return;
+		n = Math.max(n, Math.max(1024, old * 2));
+		chunk = Arrays.copyOf(chunk, n);
+		Arrays.fill(chunk, old, n, -1);
+		offset = Arrays.copyOf(offset, n);
+		capacity = Arrays.copyOf(capacity, n);
+		used = Arrays.copyOf(used, n);
+		size = Arrays.copyOf(size, n);
+		lastDocID = Arrays.copyOf(lastDocID, n);
+		shortBlock = Arrays.copyOf(shortBlock, n);
+		Arrays.fill(shortBlock, old, n, -1);
+		shortBlockPrev = Arrays.copyOf(shortBlockPrev, n);
+		tails = Arrays.copyOf(tails, n);
+		maxTfNorm = Arrays.copyOf(maxTfNorm, n);
+		Arrays.fill(maxTfNorm, old, n, Double.NaN);
+	}
+
+	/** True if the term with the ID termID has any entries. */
+	public boolean has(int termID) {
+		return termID >= 0 && termID < chunk.length && (size[termID] > 0 || tails[termID] != null);
+	}
+
+	/** Adds an occurrence of the term termID in docID at offset. */
+	public void add(int termID, int docID, int offset) {
+		tailFor(termID, docID).add(docID, offset);
+	}
+
+	/** Appends all entries of list to the term termID, after those already there. */
+	public void appendAll(int termID, PostingsList list) {
+		for (int i = 0; i < list.size(); i++)
+			tailFor(termID, list.docIDs[i]).addEntry(list, i);
+	}
+
+	/**
+	 *  Returns the tail of termID that an entry for docID should go
+	 *  into, after encoding the tail as a block if it is full and docID
+	 *  is a new document.
+	 */
+	private PostingsList tailFor(int termID, int docID) {
+		maxTfNorm[termID] = Double.NaN;
+		PostingsList tail = tails[termID];
+		if (tail == null) {
+			tail = reopen(termID);
+			unsealed = true;
+		} else if (tail.size == BLOCK_SIZE && tail.docIDs[BLOCK_SIZE - 1] != docID) {
+			encodeTail(termID);
+			tail = new PostingsList();
+			tails[termID] = tail;
+		}
+		return tail;
+	}
+
+	/** Encodes the entries of the tail of termID as a block at the end of its region. */
+	private void encodeTail(int termID) {
+		PostingsList tail = tails[termID];
+		encoded.clear();
+		PostingsCodec.writeBlock(encoded, tail, 0, tail.size, lastDocID[termID]);
+		if (used[termID] + encoded.size > capacity[termID])
+			grow(termID, used[termID] + encoded.size);
+		ByteBuffer b = chunks.get(chunk[termID]).duplicate();
+		b.position(offset[termID] + used[termID]);
+		b.put(encoded.bytes, 0, encoded.size);
+
+		shortBlock[termID] = (tail.size < BLOCK_SIZE) ? used[termID] : -1;
+		shortBlockPrev[termID] = lastDocID[termID];
+		used[termID] += encoded.size;
+		size[termID] += tail.size;
+		lastDocID[termID] = tail.docIDs[tail.size - 1];
+	}
+
+	/**
+	 *  Starts a new tail for termID, with the entries of its last block
+	 *  if that is short.
+	 */
+	private PostingsList reopen(int termID) {
+		PostingsList tail = new PostingsList();
+		tails[termID] = tail;
+		int at = shortBlock[termID];
+		if (at < 0)
+			return tail;
+		int n = size[termID] % BLOCK_SIZE;
+		PostingsCodec.decodeBlocks(chunks.get(chunk[termID]), offset[termID] + at, n, shortBlockPrev[termID], tail);
+		used[termID] = at;
+		size[termID] -= n;
+		lastDocID[termID] = shortBlockPrev[termID];
+		shortBlock[termID] = -1;
+		return tail;
+	}
+
+	/**
+	 *  Moves the blocks of termID to a new region of at least n bytes,
+	 *  and at least twice the size of the old one, and leaves the old one.
+	 */
+	private void grow(int termID, int n) {
+		int cap = Math.max(MIN_REGION, Integer.highestOneBit(n - 1) << 1);
+		if (cap < n)
+			throw new IllegalStateException("Postings of term " + termID + " are too large");
+		int bits = Integer.numberOfTrailingZeros(cap);
+		int c, at;
+		if (numFree[bits] > 0) {
+			long region = free[bits][--numFree[bits]];
+			c = (int) (region >>> 32);
+			at = (int) region;
+		} else {
+			if (chunks.isEmpty() || chunkUsed + cap > chunks.get(chunks.size() - 1).capacity()) {
+				chunks.add(ByteBuffer.allocateDirect(Math.max(CHUNK_BYTES, cap)));
+				chunkUsed = 0;
+			}
+			c = chunks.size() - 1;
+			at = chunkUsed;
+			chunkUsed += cap;
+		}
+		if (chunk[termID] >= 0) {
+			ByteBuffer from = chunks.get(chunk[termID]).duplicate();
+			from.limit(offset[termID] + used[termID]);
+			from.position(offset[termID]);
+			ByteBuffer to = chunks.get(c).duplicate();
+			to.position(at);
+			to.put(from);
+			leave(chunk[termID], offset[termID], capacity[termID]);
+		}
+		chunk[termID] = c;
+		offset[termID] = at;
+		capacity[termID] = cap;
+	}
+
+	/** Adds the region of size bytes at offset in chunk c to the free regions. */
+	private void leave(int c, int at, int size) {
+		if (size < MIN_REGION)
+			return;
+		int bits = 31 - Integer.numberOfLeadingZeros(size);
+		if (free[bits] == null)
+			free[bits] = new long[16];
+		else if (numFree[bits] == free[bits].length)
+			free[bits] = Arrays.copyOf(free[bits], 2 * numFree[bits]);
+		free[bits][numFree[bits]++] = (long) c << 32 | at;
+	}
+
+	/** Encodes the tail of termID, so that all its entries are in blocks. */
+	private void seal(int termID) {
+		if (tails[termID] == null)
+			return;
+		if (tails[termID].size > 0)
+			encodeTail(termID);
+		tails[termID] = null;
+	}
+
+	/**
+	 *  Gives back the unused end of the region of termID, if it is the
+	 *  last region taken from the last chunk.
+	 */
+	private void trim(int termID) {
+		if (chunk[termID] == chunks.size() - 1 && offset[termID] + capacity[termID] == chunkUsed) {
+			chunkUsed -= capacity[termID] - used[termID];
+			capacity[termID] = used[termID];
+		}
+	}
+
+	/** Encodes all tails, so that nothing of the postings is left on the heap. */
+	private void sealAll() {
+		if (!unsealed)
+			return;
+		for (int t = 0; t < tails.length; t++)
+			seal(t);
+		unsealed = false;
+	}
+
+	/** Decodes all entries of termID into a PostingsList. */
+	public PostingsList decode(int termID) {
+		sealAll();
+		PostingsList list = new PostingsList();
+		if (size[termID] > 0)
+			PostingsCodec.decodeBlocks(chunks.get(chunk[termID]), offset[termID], size[termID], 0, list);
+		return list;
+	}
+
+	/** Returns a cursor that reads the blocks of termID where they are. */
+	public PostingsCursor cursor(final int termID) {
+		sealAll();
+		ByteBuffer buf = (size[termID] > 0) ? chunks.get(chunk[termID]) : null;
+		return new PostingsCodec.Cursor(buf, offset[termID], size[termID], lastDocID[termID]) {
+				/** Computed the first time, and kept until the postings change. */
+				double maxTfNorm() {
+					if (Double.isNaN(maxTfNorm[termID]))
+						maxTfNorm[termID] = super.maxTfNorm();
+					return maxTfNorm[termID];
+				}
+			};
+	}
+
+	/**
+	 *  Returns an arena with these postings, without the entries of
+	 *  documents marked as deleted in docs. Terms left without entries
+	 *  have none in the new arena. Since the regions are written anew,
+	 *  this also frees the space of regions that have been left.
+	 */
+	PostingsArena withoutDeleted(DocumentTable docs) {
+		sealAll();
+		PostingsArena arena = new PostingsArena();
+		arena.ensureCapacity(capacity());
+		for (int t = 0; t < capacity(); t++) {
+			if (size[t] == 0)
+				continue;
+			PostingsList live = decode(t).withoutDeleted(docs);
+			if (live.size() == 0)
+				continue;
+			arena.appendAll(t, live);
+			arena.seal(t);
+			arena.trim(t);
+		}
+		arena.unsealed = false;
+		return arena;
+	}
+}
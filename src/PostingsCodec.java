@@ -0,0 +1,362 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ *   Encodes postings lists compactly as bytes, the way they are stored
+ *   in index segments and in a compressed HashedIndex.
+ *
+ *   DocIDs are stored as gaps from the previous docID, and positions as
+ *   gaps from the previous position in the same document, as variable
+ *   byte (VByte) integers: seven bits per byte, lowest bits first, with
+ *   the high bit set on every byte but the last. Gaps are mostly small,
+ *   so most of them take a single byte rather than four.
+ *
+ *   An encoded list is the number of entries, followed by the entries
+ *   in blocks of BLOCK_SIZE (the last block may have fewer). A block
+ *   starts with the docID of its last entry and the number of bytes in
+ *   the rest of the block, as 4-byte ints, so that a reader looking for
+ *   a later docID can skip the block without decoding it. Then come the
+ *   docID gap and frequency of each entry of the block, and then the
+ *   positions of the entries. The gap of the first entry of a block is
+ *   from the last docID of the block before.
+ */
+public class PostingsCodec {
+
+	/** Number of entries in a block. */
+	static final int BLOCK_SIZE = 128;
+
+	/** Size of the header of a block. */
+	private static final int HEADER_BYTES = 8;
+
+	/** Encodes list, without the entries of deleted documents if docs is given. */
+	static byte[] encode(PostingsList list, DocumentTable docs) {
+		Output out = new Output();
+		encode(list, docs, out);
+		return Arrays.copyOf(out.bytes, out.size);
+	}
+
+	/**
+	 *  Appends the encoding of list to out, without the entries of
+	 *  documents that are deleted in docs, unless docs is null.
+	 */
+	static void encode(PostingsList list, DocumentTable docs, Output out) {
+		if (docs != null)
+			list = list.withoutDeleted(docs);
+		int size = list.size();
+		out.writeVInt(size);
+		int prev = 0;
+		for (int from = 0; from < size; from += BLOCK_SIZE) {
+			int to = Math.min(size, from + BLOCK_SIZE);
+			writeBlock(out, list, from, to, prev);
+			prev = list.docIDs[to - 1];
+		}
+	}
+
+	/**
+	 *  Appends entries from..to of list to out as a block, with docID
+	 *  gaps from prevDocID.
+	 */
+	static void writeBlock(Output out, PostingsList list, int from, int to, int prevDocID) {
+		int header = out.size;
+		out.skip(HEADER_BYTES);
+		for (int i = from; i < to; i++) {
+			out.writeVInt(list.docIDs[i] - prevDocID);
+			out.writeVInt(list.freqs[i]);
+			prevDocID = list.docIDs[i];
+		}
+		for (int i = from; i < to; i++) {
+			int start = list.posStart[i];
+			int last = 0;
+			for (int j = 0; j < list.freqs[i]; j++) {
+				int p = list.positions[start + j];
+				out.writeVInt(p - last);
+				last = p;
+			}
+		}
+		out.putInt(header, prevDocID);
+		out.putInt(header + 4, out.size - header - HEADER_BYTES);
+	}
+
+	/** Decodes the list encoded at offset in buf. */
+	static PostingsList decode(ByteBuffer buf, int offset) {
+		Input in = new Input(buf, offset);
+		int size = in.readVInt();
+		PostingsList list = new PostingsList();
+		decodeBlocks(buf, in.pos, size, 0, list);
+		return list;
+	}
+
+	/**
+	 *  Decodes size entries from the blocks at offset in buf, whose first
+	 *  docID gap is from prevDocID, and appends them to list.
+	 */
+	static void decodeBlocks(ByteBuffer buf, int offset, int size, int prevDocID, PostingsList list) {
+		Input in = new Input(buf, offset);
+		int[] docIDs = new int[BLOCK_SIZE];
+		int[] freqs = new int[BLOCK_SIZE];
+		int[] pos = new int[16];
+		int docID = prevDocID;
+		for (int from = 0; from < size; from += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, size - from);
+			in.pos += HEADER_BYTES;
+			for (int i = 0; i < n; i++) {
+				docID += in.readVInt();
+				docIDs[i] = docID;
+				freqs[i] = in.readVInt();
+			}
+			for (int i = 0; i < n; i++) {
+				if (freqs[i] > pos.length)
+					pos = new int[Math.max(freqs[i], 2 * pos.length)];
+				int p = 0;
+				for (int j = 0; j < freqs[i]; j++) {
+					p += in.readVInt();
+					pos[j] = p;
+				}
+				list.addEntry(docIDs[i], pos, 0, freqs[i]);
+			}
+		}
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  A cursor over encoded blocks. The docIDs and frequencies of a
+	 *  block are decoded when the cursor gets to it, and its positions
+	 *  only when they are asked for. advance() reads just the headers of
+	 *  the blocks it skips.
+	 */
+	static class Cursor extends PostingsCursor {
+		private final ByteBuffer buf;
+		private final int start;
+		private final int size;
+		private final int lastDocID;
+		private final Input in;
+
+		/** Offset of the header of the next block. */
+		private int nextBlock;
+
+		/** Number of entries in the blocks before the current one. */
+		private int before = 0;
+
+		/** Number of entries in the current block, and the current entry. */
+		private int n = 0;
+		private int i = 0;
+
+		/** The last docID of the current block. */
+		private int blockLast;
+
+		/** The docIDs and frequencies of the current block. */
+		private final int[] docIDs = new int[BLOCK_SIZE];
+		private final int[] freqs = new int[BLOCK_SIZE];
+
+		/**
+		 *  Where the positions of the current block start in buf, and the
+		 *  positions once they have been decoded.
+		 */
+		private int positionsAt;
+		private boolean positionsDecoded;
+		private final int[] posStart = new int[BLOCK_SIZE];
+		private int[] positions = new int[BLOCK_SIZE];
+
+		/**
+		 *  Creates a cursor over size entries, encoded in the blocks at
+		 *  offset in buf, whose last docID is lastDocID.
+		 */
+		Cursor(ByteBuffer buf, int offset, int size, int lastDocID) {
+			this.buf = buf;
+			this.start = offset;
+			this.size = size;
+			this.lastDocID = lastDocID;
+			in = new Input(buf, offset);
+			nextBlock = offset;
+			if (size > 0) {
+				readHeader();
+				readDocs(0);
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int lastDocID() {
+			return lastDocID;
+		}
+
+		public boolean valid() {
+			return i < n;
+		}
+
+		public int docID() {
+			return docIDs[i];
+		}
+
+		public int freq() {
+			return freqs[i];
+		}
+
+		public void next() {
+			if (++i == n && before + n < size) {
+				int prev = blockLast;
+				readHeader();
+				readDocs(prev);
+			}
+		}
+
+		public void advance(int target) {
+			if (i >= n || docIDs[i] >= target)
+				return;
+			if (blockLast < target) {
+				// Skip the blocks that end before target
+				int prev;
+				do {
+					if (before + n == size) {
+						i = n;
+						return;
+					}
+					prev = blockLast;
+					readHeader();
+				} while (blockLast < target);
+				readDocs(prev);
+			}
+			while (docIDs[i] < target)
+				i++;
+		}
+
+		void addTo(PostingsList list) {
+			if (!positionsDecoded)
+				readPositions();
+			list.addEntry(docIDs[i], positions, posStart[i], freqs[i]);
+		}
+
+		double maxTfNorm() {
+			return maxTfNorm(new Cursor(buf, start, size, lastDocID));
+		}
+
+		/** Moves to the next block, and reads its header. */
+		private void readHeader() {
+			before += n;
+			blockLast = buf.getInt(nextBlock);
+			int length = buf.getInt(nextBlock + 4);
+			in.pos = nextBlock + HEADER_BYTES;
+			nextBlock = in.pos + length;
+			n = Math.min(BLOCK_SIZE, size - before);
+			i = 0;
+		}
+
+		/** Decodes the docIDs and frequencies of the current block. */
+		private void readDocs(int prevDocID) {
+			int docID = prevDocID;
+			for (int k = 0; k < n; k++) {
+				docID += in.readVInt();
+				docIDs[k] = docID;
+				freqs[k] = in.readVInt();
+			}
+			positionsAt = in.pos;
+			positionsDecoded = false;
+		}
+
+		/** Decodes the positions of the current block. */
+		private void readPositions() {
+			int total = 0;
+			for (int k = 0; k < n; k++)
+				total += freqs[k];
+			if (total > positions.length)
+				positions = new int[Math.max(total, 2 * positions.length)];
+			in.pos = positionsAt;
+			int p = 0;
+			for (int k = 0; k < n; k++) {
+				posStart[k] = p;
+				int last = 0;
+				for (int j = 0; j < freqs[k]; j++) {
+					last += in.readVInt();
+					positions[p++] = last;
+				}
+			}
+			positionsDecoded = true;
+		}
+	}
+
+
+	/** A growable array that encoded lists are written to. */
+	static class Output {
+		byte[] bytes;
+
+		/** Number of bytes written. */
+		int size = 0;
+
+		Output() {
+			this(256);
+		}
+
+		Output(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void writeVInt(int v) {
+			ensureCapacity(size + 5);
+			while ((v & ~0x7F) != 0) {
+				bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			bytes[size++] = (byte) v;
+		}
+
+		/** Writes v as a 4-byte int at offset, which must have been written. */
+		void putInt(int offset, int v) {
+			bytes[offset] = (byte) (v >>> 24);
+			bytes[offset + 1] = (byte) (v >>> 16);
+			bytes[offset + 2] = (byte) (v >>> 8);
+			bytes[offset + 3] = (byte) v;
+		}
+
+		/** Leaves n bytes to be filled in later. */
+		void skip(int n) {
+			ensureCapacity(size + n);
+			size += n;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		/** Frees the space that has not been written to. */
+		void trim() {
+			if (size < bytes.length)
+				bytes = Arrays.copyOf(bytes, size);
+		}
+
+		private void ensureCapacity(int n) {
+			if (n > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(n, bytes.length + (bytes.length >> 1) + 16));
+		}
+	}
+
+	/** Reads VByte integers from a buffer, starting at pos. */
+	static class Input {
+		final ByteBuffer buf;
+		int pos;
+
+		Input(ByteBuffer buf, int pos) {
+			this.buf = buf;
+			this.pos = pos;
+		}
+
+		int readVInt() {
+			byte b = buf.get(pos++);
+			int v = b & 0x7F;
+			for (int shift = 7; b < 0; shift += 7) {
+				b = buf.get(pos++);
+				v |= (b & 0x7F) << shift;
+			}
+			return v;
+		}
+	}
+}
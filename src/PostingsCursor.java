@@ -0,0 +1,66 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+/**
+ *   Reads the entries of a postings list one at a time, in docID order,
+ *   whether the list is a PostingsList or encoded (see PostingsCodec).
+ *   An encoded list is decoded a block at a time as the cursor gets
+ *   to it, and blocks that advance() skips are not decoded at all.
+ *
+ *   A new cursor is at the first entry, if there is one.
+ */
+public abstract class PostingsCursor {
+
+	/** Number of entries in the list. */
+	public abstract int size();
+
+	/** The docID of the last entry of the list. Only valid if size() > 0. */
+	public abstract int lastDocID();
+
+	/** True while the cursor is at an entry, false once it is past the last. */
+	public abstract boolean valid();
+
+	/** The docID of the current entry. */
+	public abstract int docID();
+
+	/** The term frequency of the current entry. */
+	public abstract int freq();
+
+	/** Moves to the next entry. */
+	public abstract void next();
+
+	/**
+	 *  Moves to the first entry, at or after the current one, whose
+	 *  docID is at least target.
+	 */
+	public abstract void advance(int target);
+
+	/** Appends the current entry, with its positions, to list. */
+	abstract void addTo(PostingsList list);
+
+	/**
+	 *  Returns the largest tf / sqrt(document length) of any entry of
+	 *  the list, which bounds the contribution of the term to a ranked
+	 *  score (see RankedSearch), or NaN if the list has no stored bound.
+	 */
+	abstract double maxTfNorm();
+
+	/** Computes maxTfNorm() by reading all entries of a new cursor. */
+	static double maxTfNorm(PostingsCursor c) {
+		double max = 0;
+		for (; c.valid(); c.next())
+			max = Math.max(max, c.freq() / Index.docs.norm(c.docID()));
+		return max;
+	}
+
+	/** Returns a cursor over the postings of term in index. */
+	static PostingsCursor of(Index index, String term) {
+		if (index instanceof HashedIndex)
+			return ((HashedIndex) index).cursor(term);
+		if (index instanceof SegmentIndex)
+			return ((SegmentIndex) index).cursor(term);
+		return index.getPostings(term).cursor();
+	}
+}
@@ -7,31 +7,25 @@
  *   This version: Victor Hallberg, Johan Stjernberg
  */  
 
-import java.util.LinkedList;
 import java.io.Serializable;
 
+/**
+ *   A single posting, as handed out by @code{PostingsList.get}. The
+ *   index itself does not store PostingsEntry objects.
+ */
 public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 	public int docID;
-	public LinkedList<Integer> offsets;
+	public int[] offsets;
 	public double score;
 
-	public PostingsEntry(int docID) {
+	public PostingsEntry(int docID, int[] offsets, double score) {
 		this.docID = docID;
-		this.score = 0;
-		offsets = new LinkedList<Integer>();
-	}
-
-	public PostingsEntry(int docID, int offset) {
-		this(docID);
-		addOffset(offset);
-	}
-
-	public boolean addOffset(int offset) {
-		return offsets.add(offset);
+		this.offsets = offsets;
+		this.score = score;
 	}
 
 	public int getFrequency() {
-		return offsets.size();
+		return offsets.length;
 	}
 
 	/**
@@ -46,4 +40,3 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 	}
 }
 
-	
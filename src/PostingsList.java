@@ -7,143 +7,788 @@
  *   This version: Victor Hallberg, Johan Stjernberg
  */  
 
-import java.util.LinkedList;
-import java.util.ListIterator;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
  *   A list of postings (for a given word or query).
+ *
+ *   The postings are stored column-wise in primitive arrays: entry i
+ *   has the document @code{docIDs[i]} and the term frequency
+ *   @code{freqs[i]}, and its positions are found in the shared pool
+ *   @code{positions}, starting at @code{posStart[i]}. Entries are kept
+ *   in increasing docID order, and the positions of each entry are
+ *   stored in increasing order directly after those of the previous
+ *   entry.
+ *
+ *   While the index is being built, postings are appended at the end
+ *   of the list. If a docID arrives out of order (as with the hash code
+ *   docIDs used for MegaIndex) it is appended all the same and the list
+ *   is marked as unsorted; the entries are then sorted and merged the
+ *   next time the list is read.
  */
 public class PostingsList implements Serializable {
-	/** The postings list as a linked list. */
-	public LinkedList<PostingsEntry> list = new LinkedList<PostingsEntry>();
+	private static final int INITIAL_CAPACITY = 2;
 
-	/**  Number of postings in this list  */
+	/** Number of entries in this list. */
+	int size = 0;
+
+	/** Document identifier of each entry. */
+	int[] docIDs = new int[INITIAL_CAPACITY];
+
+	/** Term frequency (number of positions) of each entry. */
+	int[] freqs = new int[INITIAL_CAPACITY];
+
+	/** Start of the positions of each entry in @code{positions}. */
+	int[] posStart = new int[INITIAL_CAPACITY];
+
+	/** The positions of all entries, stored back to back. */
+	int[] positions = new int[INITIAL_CAPACITY];
+
+	/** Number of used slots in @code{positions}. */
+	int numPositions = 0;
+
+	/** Score of each entry (only used in ranked retrieval), or null. */
+	double[] scores;
+
+	/** True if entries have been appended out of docID order. */
+	boolean unsorted = false;
+
+	/**
+	 *  Number of matching documents, when only the best of them are
+	 *  kept in this list (ranked retrieval), or -1 if the list holds all
+	 *  of them. Searches that skip documents without counting them set
+	 *  this to UNCOUNTED.
+	 */
+	int totalMatches = -1;
+
+	/** totalMatches of a search that did not count all matches. */
+	public static final int UNCOUNTED = -2;
+
+	/**
+	 *  Largest tf / sqrt(document length) of any entry, which bounds the
+	 *  contribution of the term to a ranked score, or NaN if it has not
+	 *  been computed since the list last changed.
+	 */
+	double maxTfNorm = Double.NaN;
+
+	/**
+	 *  Number of postings in this list. This also brings the list back
+	 *  into docID order, so it should be called before the entries are
+	 *  accessed by index.
+	 */
 	public int size() {
-		return list.size();
+		ensureSorted();
+		return size;
+	}
+
+	/**
+	 *  Number of documents that matched the query this list is the
+	 *  result of. This is larger than size() for a top-k result, and
+	 *  UNCOUNTED if the search did not count them.
+	 */
+	public int totalMatches() {
+		return (totalMatches == -1) ? size() : totalMatches;
 	}
 
+	/**
+	 *  Returns a copy of entry i. Use the accessors below on hot
+	 *  paths, this allocates.
+	 */
 	public PostingsEntry get(int i) {
-		return list.get(i);
+		ensureSorted();
+		int[] offsets = Arrays.copyOfRange(positions, posStart[i], posStart[i] + freqs[i]);
+		return new PostingsEntry(docIDs[i], offsets, getScore(i));
+	}
+
+	public int getDocID(int i) {
+		return docIDs[i];
+	}
+
+	public int getFrequency(int i) {
+		return freqs[i];
+	}
+
+	public double getScore(int i) {
+		return (scores == null) ? 0 : scores[i];
+	}
+
+	public void setScore(int i, double score) {
+		if (scores == null)
+			scores = new double[docIDs.length];
+		scores[i] = score;
+	}
+
+	/** Returns position j of entry i. */
+	public int getPosition(int i, int j) {
+		return positions[posStart[i] + j];
+	}
+
+	/**
+	 *  Returns the index of the entry for docID, or (-(insertion point) - 1)
+	 *  if there is no such entry.
+	 */
+	public int indexOf(int docID) {
+		ensureSorted();
+		return Arrays.binarySearch(docIDs, 0, size, docID);
 	}
 
+	/**
+	 *  Adds an occurrence of the term in docID at offset. Only the last
+	 *  entry is looked at, so building a list in docID order is amortized
+	 *  constant time per call.
+	 */
 	public void add(int docID, int offset) {
-		int i = 0;
-		for (PostingsEntry pe : list) {
-			if (pe.docID == docID) {
-				pe.addOffset(offset);
-				return;
-			} else if (pe.docID > docID) {
-				break;
+		maxTfNorm = Double.NaN;
+		int last = size - 1;
+		if (last >= 0 && docIDs[last] == docID) {
+			if (freqs[last] == 0 || positions[numPositions - 1] < offset) {
+				ensurePositionCapacity(numPositions + 1);
+				positions[numPositions++] = offset;
+				freqs[last]++;
+			} else {
+				insertPosition(last, offset);
 			}
-			i++;
+			return;
 		}
-		list.add(i, new PostingsEntry(docID, offset));
+		if (last >= 0 && docIDs[last] > docID)
+			unsorted = true;
+		ensureCapacity(size + 1);
+		ensurePositionCapacity(numPositions + 1);
+		docIDs[size] = docID;
+		freqs[size] = 1;
+		posStart[size] = numPositions;
+		positions[numPositions++] = offset;
+		size++;
 	}
 
-	public void add(PostingsEntry entry) {
-		int i = 0;
-		for (PostingsEntry pe : list) {
-			if (pe.docID == entry.docID)
-				return;
-			if (pe.docID > entry.docID)
-				break;
-			i++;
+	/**
+	 *  Appends a copy of entry i of src to the end of this list. The
+	 *  caller is responsible for keeping docIDs in increasing order.
+	 */
+	void addEntry(PostingsList src, int i) {
+		addEntry(src.docIDs[i], src.positions, src.posStart[i], src.freqs[i]);
+	}
+
+	/**
+	 *  Appends an entry with the positions pos[from..from+count) to the
+	 *  end of this list.
+	 */
+	void addEntry(int docID, int[] pos, int from, int count) {
+		maxTfNorm = Double.NaN;
+		ensureCapacity(size + 1);
+		ensurePositionCapacity(numPositions + count);
+		docIDs[size] = docID;
+		freqs[size] = count;
+		posStart[size] = numPositions;
+		System.arraycopy(pos, from, positions, numPositions, count);
+		numPositions += count;
+		size++;
+	}
+
+	/**
+	 *  Appends an entry for docID without positions, as the entries of
+	 *  a ranked result are. The caller decides the order of the entries.
+	 */
+	void addDocument(int docID) {
+		maxTfNorm = Double.NaN;
+		ensureCapacity(size + 1);
+		docIDs[size] = docID;
+		freqs[size] = 0;
+		posStart[size] = numPositions;
+		size++;
+	}
+
+	/**
+	 *  Appends all entries of other to the end of this list. If other
+	 *  starts at a docID not after the last one of this list, the list is
+	 *  marked as unsorted.
+	 */
+	void appendAll(PostingsList other) {
+		if (other.size == 0)
+			return;
+		maxTfNorm = Double.NaN;
+		if (other.unsorted || (size > 0 && docIDs[size - 1] >= other.docIDs[0]))
+			unsorted = true;
+		ensureCapacity(size + other.size);
+		ensurePositionCapacity(numPositions + other.numPositions);
+		System.arraycopy(other.docIDs, 0, docIDs, size, other.size);
+		System.arraycopy(other.freqs, 0, freqs, size, other.size);
+		for (int i = 0; i < other.size; i++)
+			posStart[size + i] = other.posStart[i] + numPositions;
+		System.arraycopy(other.positions, 0, positions, numPositions, other.numPositions);
+		size += other.size;
+		numPositions += other.numPositions;
+	}
+
+	/**
+	 *  Returns the entries of this list whose documents are not marked
+	 *  as deleted in docs, or this list itself if none of them are.
+	 */
+	PostingsList withoutDeleted(DocumentTable docs) {
+		ensureSorted();
+		if (docs.numDeleted() == 0)
+			return this;
+		int first = 0;
+		while (first < size && !docs.isDeleted(docIDs[first]))
+			first++;
+		if (first == size)
+			return this;
+		PostingsList live = new PostingsList();
+		for (int i = 0; i < size; i++) {
+			if (docs.isDeleted(docIDs[i]))
+				continue;
+			live.addEntry(this, i);
+			if (scores != null)
+				live.setScore(live.size - 1, scores[i]);
 		}
-		list.add(i, entry);
+		return live;
 	}
 
+	/**
+	 *  Writes the entries of this list to out: for each entry its
+	 *  frequency, its docID and its positions, and last a frequency of 0.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		ensureSorted();
+		for (int i = 0; i < size; i++) {
+			out.writeInt(freqs[i]);
+			out.writeInt(docIDs[i]);
+			for (int j = 0; j < freqs[i]; j++)
+				out.writeInt(positions[posStart[i] + j]);
+		}
+		out.writeInt(0);
+	}
+
+	/** Reads a list written by writeTo. */
+	static PostingsList readFrom(DataInput in) throws IOException {
+		PostingsList list = new PostingsList();
+		int freq;
+		while ((freq = in.readInt()) > 0) {
+			int docID = in.readInt();
+			list.ensureCapacity(list.size + 1);
+			list.ensurePositionCapacity(list.numPositions + freq);
+			list.docIDs[list.size] = docID;
+			list.freqs[list.size] = freq;
+			list.posStart[list.size] = list.numPositions;
+			for (int j = 0; j < freq; j++)
+				list.positions[list.numPositions++] = in.readInt();
+			list.size++;
+		}
+		return list;
+	}
+
+	/** Inserts offset into the positions of entry i, keeping them sorted. */
+	private void insertPosition(int i, int offset) {
+		ensurePositionCapacity(numPositions + 1);
+		int start = posStart[i];
+		int end = start + freqs[i];
+		int at = end;
+		while (at > start && positions[at - 1] > offset)
+			at--;
+		System.arraycopy(positions, at, positions, at + 1, numPositions - at);
+		positions[at] = offset;
+		numPositions++;
+		freqs[i]++;
+		for (int k = i + 1; k < size; k++)
+			posStart[k]++;
+	}
+
+	/**
+	 *  Sorts the entries by docID if they were appended out of order.
+	 *  Entries for the same docID are merged into one.
+	 */
+	void ensureSorted() {
+		if (!unsorted)
+			return;
+		unsorted = false;
+
+		// Sort by docID, and by arrival order within the same docID
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) docIDs[i] << 32) | i;
+		Arrays.sort(keys);
+
+		int[] newDocIDs = new int[size];
+		int[] newFreqs = new int[size];
+		int[] newStart = new int[size];
+		int[] newPositions = new int[numPositions];
+		int n = 0, p = 0;
+		for (int k = 0; k < size; k++) {
+			int i = (int) keys[k];
+			if (n > 0 && newDocIDs[n - 1] == docIDs[i]) {
+				// Same document seen again, merge the positions
+				System.arraycopy(positions, posStart[i], newPositions, p, freqs[i]);
+				p += freqs[i];
+				newFreqs[n - 1] += freqs[i];
+				Arrays.sort(newPositions, newStart[n - 1], p);
+			} else {
+				newDocIDs[n] = docIDs[i];
+				newFreqs[n] = freqs[i];
+				newStart[n] = p;
+				System.arraycopy(positions, posStart[i], newPositions, p, freqs[i]);
+				p += freqs[i];
+				n++;
+			}
+		}
+		docIDs = newDocIDs;
+		freqs = newFreqs;
+		posStart = newStart;
+		positions = newPositions;
+		size = n;
+		scores = null;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= docIDs.length)
+			return;
+		int capacity = Math.max(n, docIDs.length + (docIDs.length >> 1) + 1);
+		docIDs = Arrays.copyOf(docIDs, capacity);
+		freqs = Arrays.copyOf(freqs, capacity);
+		posStart = Arrays.copyOf(posStart, capacity);
+		if (scores != null)
+			scores = Arrays.copyOf(scores, capacity);
+	}
+
+	private void ensurePositionCapacity(int n) {
+		if (n <= positions.length)
+			return;
+		int capacity = Math.max(n, positions.length + (positions.length >> 1) + 1);
+		positions = Arrays.copyOf(positions, capacity);
+	}
+
+	/** Returns the union of this list and other. */
 	public PostingsList unionWith(PostingsList other) {
-		ListIterator<PostingsEntry> it1 = list.listIterator();
-		ListIterator<PostingsEntry> it2 = other.list.listIterator();
+		return union(new PostingsList[] { this, other });
+	}
+
+	/**
+	 *  Returns the union of all lists in one pass. The lists are merged
+	 *  through a min-heap keyed on their current docID, so the cost is
+	 *  O(n log k) for n postings in k lists. A document that occurs in
+	 *  several lists gets the union of their positions.
+	 */
+	public static PostingsList union(PostingsList[] lists) {
+		return union(lists, null);
+	}
+
+	/**
+	 *  Returns the union of all lists as union(lists) does, but without
+	 *  the documents marked as deleted in docs (if docs is not null).
+	 */
+	public static PostingsList union(PostingsList[] lists, DocumentTable docs) {
+		if (docs != null && docs.numDeleted() == 0)
+			docs = null;
+		int k = 0, totalEntries = 0, totalPositions = 0;
+		int[] heap = new int[lists.length];
+		int[] cursor = new int[lists.length];
+		for (int l = 0; l < lists.length; l++) {
+			PostingsList list = lists[l];
+			list.ensureSorted();
+			totalEntries += list.size;
+			totalPositions += list.numPositions;
+			if (list.size > 0)
+				heap[k++] = l;
+		}
+		for (int h = k / 2 - 1; h >= 0; h--)
+			siftDown(heap, k, h, lists, cursor);
 
 		PostingsList answer = new PostingsList();
+		answer.ensureCapacity(totalEntries);
+		answer.ensurePositionCapacity(totalPositions);
 
-		try {
-			if (!it1.hasNext() || !it2.hasNext())
-				throw new NoSuchElementException();
-
-			PostingsEntry p1 = it1.next();
-			PostingsEntry p2 = it2.next();
-
-			while (p1 != null && p2 != null) {
-				if (p1.docID == p2.docID) {
-					// Not a real union, but works in this case
-					answer.add(p1);
-					if (!it1.hasNext() || !it2.hasNext())
-						break;
-					p1 = it1.next();
-					p2 = it2.next();
-				} else if (p1.docID < p2.docID) {
-					answer.add(p1);
-					if (!it1.hasNext()) {
-						answer.add(p2);
-						break;
-					}
-					p1 = it1.next();
-				} else {
-					answer.add(p2);
-					if (!it1.hasNext()) {
-						answer.add(p1);
-						break;
-					}
-					p2 = it2.next();
-				}
-			}
-		} catch (NoSuchElementException e) {}
+		while (k > 0) {
+			int docID = lists[heap[0]].docIDs[cursor[heap[0]]];
+			int start = answer.numPositions;
+			int sources = 0;
 
-		while (it1.hasNext())
-			answer.add(it1.next());
+			// Copy the positions of every list currently at docID
+			while (k > 0) {
+				int l = heap[0];
+				PostingsList list = lists[l];
+				int c = cursor[l];
+				if (list.docIDs[c] != docID)
+					break;
+				System.arraycopy(list.positions, list.posStart[c], answer.positions, answer.numPositions, list.freqs[c]);
+				answer.numPositions += list.freqs[c];
+				sources++;
+				if (++cursor[l] == list.size)
+					heap[0] = heap[--k];
+				if (k > 0)
+					siftDown(heap, k, 0, lists, cursor);
+			}
 
-		while (it2.hasNext())
-			answer.add(it2.next());
+			int end = answer.numPositions;
+			if (docs != null && docs.isDeleted(docID)) {
+				answer.numPositions = start;
+				continue;
+			}
+			if (sources > 1 && end > start) {
+				// Sort the merged positions and drop duplicates
+				Arrays.sort(answer.positions, start, end);
+				int w = start + 1;
+				for (int r = start + 1; r < end; r++)
+					if (answer.positions[r] != answer.positions[w - 1])
+						answer.positions[w++] = answer.positions[r];
+				end = w;
+				answer.numPositions = end;
+			}
+			answer.docIDs[answer.size] = docID;
+			answer.freqs[answer.size] = end - start;
+			answer.posStart[answer.size] = start;
+			answer.size++;
+		}
 
 		return answer;
 	}
 
+	/** Restores the heap property below node h of a heap of k lists. */
+	private static void siftDown(int[] heap, int k, int h, PostingsList[] lists, int[] cursor) {
+		int l = heap[h];
+		int docID = lists[l].docIDs[cursor[l]];
+		while (true) {
+			int child = 2 * h + 1;
+			if (child >= k)
+				break;
+			int c = heap[child];
+			int childDoc = lists[c].docIDs[cursor[c]];
+			if (child + 1 < k) {
+				int c2 = heap[child + 1];
+				int doc2 = lists[c2].docIDs[cursor[c2]];
+				if (doc2 < childDoc) {
+					child++;
+					c = c2;
+					childDoc = doc2;
+				}
+			}
+			if (docID <= childDoc)
+				break;
+			heap[h] = c;
+			h = child;
+		}
+		heap[h] = l;
+	}
+
 	public PostingsList intersect(PostingsList other) {
 		return intersect(other, false);
 	}
 
+	/**
+	 *  Intersects this list with other. If phrase is true, only documents
+	 *  where this term is directly followed by the other are kept, with
+	 *  the positions of other that follow this term. Otherwise the
+	 *  entries of this list are kept.
+	 *
+	 *  The shorter list is walked one entry at a time, and the longer one
+	 *  is searched with @code{advance}, so the cost tracks the length of
+	 *  the shorter list.
+	 */
 	public PostingsList intersect(PostingsList other, boolean phrase) {
+		if (phrase)
+			return intersectAt(other, 1).shifted(1);
+
+		ensureSorted();
+		other.ensureSorted();
 		PostingsList answer = new PostingsList();
 
-		ListIterator<PostingsEntry> it1 = list.listIterator();
-		ListIterator<PostingsEntry> it2 = other.list.listIterator();
-
-		try {
-			PostingsEntry p1 = it1.next();
-			PostingsEntry p2 = it2.next();
-
-			while (true) {
-				if (p1.docID == p2.docID) {
-					if (phrase) { // Phrase searching
-						ListIterator<Integer> pit1 = p1.offsets.listIterator();
-						while (pit1.hasNext()) {
-							int pp1 = pit1.next();
-							ListIterator<Integer> pit2 = p2.offsets.listIterator();
-							while (pit2.hasNext()) {
-								int pp2 = pit2.next();
-								if (pp2 - pp1 == 1) // adjacent words (w1 followed by w2)
-									answer.add(p2);
-								else if (pp2 > pp1) // w2 comes too late after w1
-									break;
-							}
-						}
-					} else { // Normal intersect
-						answer.add(p1);
-					}
-					p1 = it1.next();
-					p2 = it2.next();
-				} else if (p1.docID < p2.docID) {
-					p1 = it1.next();
+		boolean thisShorter = size <= other.size;
+		PostingsList shorter = thisShorter ? this : other;
+		PostingsList longer = thisShorter ? other : this;
+
+		int j = 0;
+		for (int i = 0; i < shorter.size; i++) {
+			j = longer.advance(j, shorter.docIDs[i]);
+			if (j == longer.size)
+				break;
+			if (longer.docIDs[j] == shorter.docIDs[i]) {
+				answer.addEntry(this, thisShorter ? i : j);
+				j++;
+			}
+		}
+
+		return answer;
+	}
+
+	/**
+	 *  Intersects this list with other, keeping only the positions p of
+	 *  this list for which other has a position p + distance in the same
+	 *  document. Documents where no position is left are dropped.
+	 */
+	public PostingsList intersectAt(PostingsList other, int distance) {
+		ensureSorted();
+		other.ensureSorted();
+		PostingsList answer = new PostingsList();
+
+		boolean thisShorter = size <= other.size;
+		PostingsList shorter = thisShorter ? this : other;
+		PostingsList longer = thisShorter ? other : this;
+
+		int j = 0;
+		for (int i = 0; i < shorter.size; i++) {
+			j = longer.advance(j, shorter.docIDs[i]);
+			if (j == longer.size)
+				break;
+			if (longer.docIDs[j] != shorter.docIDs[i])
+				continue;
+
+			int i1 = thisShorter ? i : j;
+			int i2 = thisShorter ? j : i;
+			int docID = docIDs[i1];
+			int p = posStart[i1], pEnd = p + freqs[i1];
+			int q = other.posStart[i2], qEnd = q + other.freqs[i2];
+			while (p < pEnd && q < qEnd) {
+				int target = positions[p] + distance;
+				if (other.positions[q] == target) {
+					answer.add(docID, positions[p]);
+					p++;
+					q++;
+				} else if (other.positions[q] < target) {
+					q++;
 				} else {
-					p2 = it2.next();
+					p++;
 				}
 			}
-		} catch (NoSuchElementException e) {}
+			j++;
+		}
+
+		return answer;
+	}
 
+	/** Returns a copy of this list with all positions moved by delta. */
+	public PostingsList shifted(int delta) {
+		ensureSorted();
+		if (delta == 0)
+			return this;
+		PostingsList answer = new PostingsList();
+		for (int i = 0; i < size; i++)
+			answer.addEntry(this, i);
+		for (int k = 0; k < answer.numPositions; k++)
+			answer.positions[k] += delta;
 		return answer;
 	}
+
+	/**
+	 *  Returns the documents where the terms of lists occur as a phrase,
+	 *  i.e. at consecutive positions in the given order. Each document is
+	 *  emitted once, with the positions where the phrase starts.
+	 *
+	 *  Documents are found by walking the rarest list and galloping
+	 *  through the others. The positions of a candidate document are
+	 *  then matched in one linear merge over all N position arrays.
+	 */
+	public static PostingsList phrase(PostingsList[] lists) {
+		return phrase(lists, null);
+	}
+
+	/**
+	 *  Returns the phrase matches as phrase(lists) does, but without the
+	 *  documents marked as deleted in docs (if docs is not null).
+	 */
+	public static PostingsList phrase(PostingsList[] lists, DocumentTable docs) {
+		if (docs != null && docs.numDeleted() == 0)
+			docs = null;
+		PostingsList answer = new PostingsList();
+		int n = lists.length;
+		if (n == 0)
+			return answer;
+		for (PostingsList list : lists) {
+			list.ensureSorted();
+			if (list.size == 0)
+				return answer;
+		}
+
+		int[] order = bySize(lists);
+		PostingsList driver = lists[order[0]];
+		int[] entry = new int[n];
+		int[] cur = new int[n];
+		int[] end = new int[n];
+
+		int i = 0;
+		candidates:
+		while (i < driver.size) {
+			int docID = driver.docIDs[i];
+			entry[order[0]] = i;
+			for (int k = 1; k < n; k++) {
+				int l = order[k];
+				PostingsList list = lists[l];
+				entry[l] = list.advance(entry[l], docID);
+				if (entry[l] == list.size)
+					break candidates;
+				if (list.docIDs[entry[l]] != docID) {
+					// Leapfrog the driver to the next document of this list
+					i = driver.advance(i, list.docIDs[entry[l]]);
+					continue candidates;
+				}
+			}
+			if (docs == null || !docs.isDeleted(docID))
+				matchPhrase(lists, entry, cur, end, docID, answer);
+			i++;
+		}
+
+		return answer;
+	}
+
+	/**
+	 *  Appends the phrase starts in docID to answer. Term t of the phrase
+	 *  must occur at position s + t for a start s, so every cursor is moved
+	 *  up to the largest candidate start until all of them agree.
+	 */
+	private static void matchPhrase(PostingsList[] lists, int[] entry, int[] cur, int[] end, int docID, PostingsList answer) {
+		int n = lists.length;
+		for (int t = 0; t < n; t++) {
+			PostingsList list = lists[t];
+			cur[t] = list.posStart[entry[t]];
+			end[t] = cur[t] + list.freqs[entry[t]];
+		}
+		while (true) {
+			int target = Integer.MIN_VALUE;
+			for (int t = 0; t < n; t++)
+				target = Math.max(target, lists[t].positions[cur[t]] - t);
+
+			boolean match = true;
+			for (int t = 0; t < n; t++) {
+				int[] pos = lists[t].positions;
+				while (pos[cur[t]] - t < target) {
+					if (++cur[t] == end[t])
+						return;
+				}
+				if (pos[cur[t]] - t != target)
+					match = false;
+			}
+
+			if (match) {
+				answer.add(docID, target);
+				for (int t = 0; t < n; t++) {
+					if (++cur[t] == end[t])
+						return;
+				}
+			}
+		}
+	}
+
+	/** Returns the indices of lists, ordered by increasing size. */
+	static int[] bySize(PostingsList[] lists) {
+		int[] sizes = new int[lists.length];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = lists[i].size();
+		return bySize(sizes);
+	}
+
+	/**
+	 *  Returns the indices of sizes, ordered by increasing size, for
+	 *  evaluating the terms of a query rarest first.
+	 */
+	static int[] bySize(int[] sizes) {
+		int[] order = new int[sizes.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		// Queries are short, so insertion sort will do
+		for (int i = 1; i < order.length; i++) {
+			int o = order[i];
+			int j = i;
+			while (j > 0 && sizes[order[j - 1]] > sizes[o]) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = o;
+		}
+		return order;
+	}
+
+	/**
+	 *  Returns maxTfNorm, after computing it if it is not known. Indexes
+	 *  call this when they write the list, so that the bound is stored
+	 *  with it and searches do not have to read every entry for it.
+	 */
+	double maxTfNorm() {
+		if (Double.isNaN(maxTfNorm))
+			maxTfNorm = PostingsCursor.maxTfNorm(cursor());
+		return maxTfNorm;
+	}
+
+	/** Returns a cursor over the entries of this list. */
+	public PostingsCursor cursor() {
+		ensureSorted();
+		return new Cursor(this);
+	}
+
+	/** A cursor over a PostingsList, which it reads in place. */
+	private static class Cursor extends PostingsCursor {
+		private final PostingsList list;
+		private int i = 0;
+
+		Cursor(PostingsList list) {
+			this.list = list;
+		}
+
+		public int size() {
+			return list.size;
+		}
+
+		public int lastDocID() {
+			return list.docIDs[list.size - 1];
+		}
+
+		public boolean valid() {
+			return i < list.size;
+		}
+
+		public int docID() {
+			return list.docIDs[i];
+		}
+
+		public int freq() {
+			return list.freqs[i];
+		}
+
+		public void next() {
+			i++;
+		}
+
+		public void advance(int target) {
+			i = list.advance(i, target);
+		}
+
+		void addTo(PostingsList answer) {
+			answer.addEntry(list, i);
+		}
+
+		/** The bound stored with the list, or NaN if it has none. */
+		double maxTfNorm() {
+			return list.maxTfNorm;
+		}
+	}
+
+	/**
+	 *  Returns the index of the first entry at or after from whose docID
+	 *  is at least target, or size if there is none. The entries are
+	 *  probed at exponentially growing distances from from (galloping)
+	 *  before a binary search, so skipping n entries costs O(log n).
+	 */
+	int advance(int from, int target) {
+		if (from >= size || docIDs[from] >= target)
+			return from;
+		// Invariant: docIDs[lo] < target
+		int lo = from, step = 1;
+		int hi = from + step;
+		while (hi < size && docIDs[hi] < target) {
+			lo = hi;
+			step <<= 1;
+			hi = from + step;
+		}
+		if (hi > size)
+			hi = size;
+		// Now docIDs[lo] < target <= docIDs[hi] (or hi == size)
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (docIDs[mid] < target)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return hi;
+	}
 }
@@ -0,0 +1,105 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.List;
+
+/**
+ *   Evaluates intersection, phrase and union queries on an index. The
+ *   postings of all terms are fetched first, and the terms are then
+ *   intersected in order of increasing document frequency, so that
+ *   intermediate results are never larger than the rarest term's
+ *   postings. Documents marked as deleted are left out of the results.
+ */
+public class QueryPlanner {
+
+	/**
+	 *  Returns the documents containing all terms, with the entries
+	 *  (positions) of the first term in the query.
+	 *
+	 *  The terms are read through cursors, so compressed postings are
+	 *  only decoded where the rarer terms lead the others.
+	 */
+	public static PostingsList intersect(Index index, List<String> terms) {
+		if (terms.isEmpty())
+			return new PostingsList();
+		PostingsCursor[] cursors = new PostingsCursor[terms.size()];
+		int[] sizes = new int[terms.size()];
+		int i = 0;
+		for (String term : terms) {
+			cursors[i] = PostingsCursor.of(index, term);
+			sizes[i] = cursors[i].size();
+			if (sizes[i] == 0)
+				return new PostingsList();
+			i++;
+		}
+
+		int[] order = PostingsList.bySize(sizes);
+		PostingsCursor lead = cursors[order[0]];
+		PostingsList result = new PostingsList();
+		DocumentTable docs = Index.docs;
+		boolean anyDeleted = docs.numDeleted() > 0;
+		candidates:
+		while (lead.valid()) {
+			int docID = lead.docID();
+			for (int k = 1; k < order.length; k++) {
+				PostingsCursor c = cursors[order[k]];
+				c.advance(docID);
+				if (!c.valid())
+					break candidates;
+				if (c.docID() != docID) {
+					// Leapfrog the lead to the next document of this term
+					lead.advance(c.docID());
+					continue candidates;
+				}
+			}
+			// The entries of the first query term are the ones reported
+			if (!anyDeleted || !docs.isDeleted(docID))
+				cursors[0].addTo(result);
+			lead.next();
+		}
+		return result;
+	}
+
+	/**
+	 *  Returns the documents containing the terms as a phrase, with the
+	 *  positions where the phrase starts.
+	 */
+	public static PostingsList phrase(Index index, List<String> terms) {
+		PostingsList[] lists = fetch(index, terms);
+		if (lists == null)
+			return new PostingsList();
+		return PostingsList.phrase(lists, Index.docs);
+	}
+
+	/**
+	 *  Returns the documents containing any of the terms, with the union
+	 *  of the terms' positions.
+	 */
+	public static PostingsList union(Index index, List<String> terms) {
+		PostingsList[] lists = new PostingsList[terms.size()];
+		int i = 0;
+		for (String term : terms)
+			lists[i++] = index.getPostings(term);
+		return PostingsList.union(lists, Index.docs);
+	}
+
+	/**
+	 *  Fetches the postings of all terms, or returns null if some term
+	 *  does not occur in the index (or there are no terms).
+	 */
+	private static PostingsList[] fetch(Index index, List<String> terms) {
+		if (terms.isEmpty())
+			return null;
+		PostingsList[] lists = new PostingsList[terms.size()];
+		int i = 0;
+		for (String term : terms) {
+			lists[i] = index.getPostings(term);
+			if (lists[i] == null || lists[i].size() == 0)
+				return null;
+			i++;
+		}
+		return lists;
+	}
+}
@@ -0,0 +1,257 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *   Ranked retrieval with tf-idf scoring, optionally weighted by PageRank.
+ *
+ *   The score of document d is the sum over the distinct query terms t of
+ *
+ *      qtf(t) * idf(t)^2 * tf(t,d) / sqrt(query length) / sqrt(|d|)
+ *
+ *   multiplied by sqrt(pagerank(d) * number of documents) when d has a
+ *   PageRank.
+ *
+ *   When only the best k documents are wanted, the documents are
+ *   evaluated one at a time with WAND: every term has an upper bound on
+ *   its contribution to any score, and documents whose summed bounds
+ *   cannot beat the k-th best score so far are skipped without being
+ *   scored. The bounds are stored by the index with the postings; if
+ *   a term has none, or all documents are wanted, all postings are
+ *   scored term by term.
+ *
+ *   The postings are read through cursors, so compressed postings are
+ *   decoded block by block, and WAND does not decode the blocks it skips.
+ *
+ *   Documents marked as deleted are never scored.
+ */
+public class RankedSearch {
+
+	/** Slack on the score bounds, so that rounding never prunes a document. */
+	private static final double BOUND_SLACK = 1 + 1e-9;
+
+	/**
+	 *  Scores are accumulated in an array indexed by docID if no docID is
+	 *  larger than this many times the number of documents.
+	 */
+	private static final int DENSE_FACTOR = 4;
+
+	private static final Pattern docNamePattern = Pattern.compile("([^\\\\/]+?)(?:\\..+)?$");
+
+	private final PageRank pageRank;
+	private final int numDocuments;
+	private final int numSearchTerms;
+
+	/** Distinct query terms, and cursors over their postings. */
+	private final String[] terms;
+	private final PostingsCursor[] cursors;
+
+	/** qtf * idf^2 of each distinct term. */
+	private final double[] queryTFIDF;
+
+	private RankedSearch(Index index, PageRank pageRank, List<String> searchTerms) {
+		this.pageRank = pageRank;
+		numDocuments = Index.docs.size();
+		numSearchTerms = searchTerms.size();
+
+		// Term frequency in query
+		LinkedHashMap<String, Integer> termCounts = new LinkedHashMap<String, Integer>();
+		for (String term : searchTerms) {
+			Integer count = termCounts.get(term);
+			termCounts.put(term, (count == null) ? 1 : count + 1);
+		}
+
+		terms = termCounts.keySet().toArray(new String[0]);
+		cursors = new PostingsCursor[terms.length];
+		queryTFIDF = new double[terms.length];
+		for (int t = 0; t < terms.length; t++) {
+			cursors[t] = PostingsCursor.of(index, terms[t]);
+			int tf = termCounts.get(terms[t]);
+			int df = cursors[t].size();
+			double idf = (df < 1) ? 0 : Math.log10((double) numDocuments / df) + 1;
+			queryTFIDF[t] = tf * idf * idf;
+		}
+	}
+
+	/**
+	 *  Returns the k best documents for the query, in descending score
+	 *  order.
+	 */
+	public static PostingsList search(Index index, PageRank pageRank, List<String> searchTerms, int k) {
+		RankedSearch search = new RankedSearch(index, pageRank, searchTerms);
+		long postings = 0;
+		boolean bounded = true;
+		for (PostingsCursor c : search.cursors) {
+			postings += c.size();
+			if (c.size() > 0 && Double.isNaN(c.maxTfNorm()))
+				bounded = false;
+		}
+		// Pruning needs a bound for every term, and only pays off if some
+		// documents can be left out
+		if (bounded && k < postings)
+			return search.wand(k);
+		return search.exhaustive(k);
+	}
+
+	/**
+	 *  Contribution of term t occurring tf times in a document with the
+	 *  given norm (square root of its length).
+	 */
+	private double termScore(int t, int tf, float norm) {
+		return queryTFIDF[t] * tf / Math.sqrt(numSearchTerms) / norm;
+	}
+
+	/**
+	 *  Scores every posting of every term (term-at-a-time), and keeps
+	 *  the k best documents.
+	 */
+	private PostingsList exhaustive(int k) {
+		// Accumulate into an array indexed by docID if the docIDs are dense
+		int minDocID = Integer.MAX_VALUE, maxDocID = Integer.MIN_VALUE, postings = 0;
+		for (PostingsCursor c : cursors) {
+			if (c.size() == 0)
+				continue;
+			minDocID = Math.min(minDocID, c.docID());
+			maxDocID = Math.max(maxDocID, c.lastDocID());
+			postings += c.size();
+		}
+		ScoreAccumulator scores;
+		if (minDocID >= 0 && maxDocID < DENSE_FACTOR * (long) numDocuments + 1024)
+			scores = ScoreAccumulator.dense(maxDocID);
+		else
+			scores = ScoreAccumulator.sparse(postings);
+
+		// Calculate scores for each document (in regards to each search term)
+		for (int t = 0; t < cursors.length; t++) {
+			for (PostingsCursor c = cursors[t]; c.valid(); c.next()) {
+				int docID = c.docID();
+				scores.add(docID, termScore(t, c.freq(), Index.docs.norm(docID)));
+			}
+		}
+
+		// Keep the k best documents, with PageRank taken into account
+		TopDocs top = new TopDocs(k, scores.size());
+		for (int i = 0; i < scores.size(); i++) {
+			int docID = scores.docID(i);
+			if (!Index.docs.isDeleted(docID))
+				top.offer(docID, scores.score(i) * pageRankFactor(docID));
+		}
+		return top.toPostingsList();
+	}
+
+	/**
+	 *  Evaluates the query document-at-a-time with WAND. The cursors of
+	 *  all terms are kept ordered by their current document. The pivot
+	 *  is the first cursor at which the summed upper bounds of the
+	 *  cursors so far exceed the threshold (the k-th best score), since no
+	 *  document before the pivot's document can enter the top k. If all
+	 *  cursors before the pivot are already at its document it is scored,
+	 *  otherwise they are moved forward to it.
+	 */
+	private PostingsList wand(int k) {
+		int n = cursors.length;
+		TopDocs top = new TopDocs(k);
+		double pageRankBound = pageRankBound();
+
+		double[] bound = new double[n];
+		int[] order = new int[n];
+		int live = 0;
+		for (int t = 0; t < n; t++) {
+			if (cursors[t].size() == 0)
+				continue;
+			bound[t] = queryTFIDF[t] * cursors[t].maxTfNorm() / Math.sqrt(numSearchTerms) * pageRankBound * BOUND_SLACK;
+			order[live++] = t;
+		}
+
+		while (live > 0) {
+			sortByDoc(order, live);
+			double threshold = top.isFull() ? top.threshold() : Double.NEGATIVE_INFINITY;
+
+			// Find the pivot
+			int p = -1;
+			double sum = 0;
+			for (int i = 0; i < live; i++) {
+				sum += bound[order[i]];
+				if (sum > threshold) {
+					p = i;
+					break;
+				}
+			}
+			if (p < 0) // no remaining document can enter the top k
+				break;
+
+			int pivotDoc = cursors[order[p]].docID();
+			if (cursors[order[0]].docID() == pivotDoc) {
+				// Score the pivot document, adding the terms in query order
+				float norm = Index.docs.norm(pivotDoc);
+				double score = 0;
+				for (int t = 0; t < n; t++) {
+					PostingsCursor c = cursors[t];
+					if (c.valid() && c.docID() == pivotDoc) {
+						score += termScore(t, c.freq(), norm);
+						c.next();
+					}
+				}
+				if (!Index.docs.isDeleted(pivotDoc))
+					top.offer(pivotDoc, score * pageRankFactor(pivotDoc));
+			} else {
+				// Skip the documents before the pivot
+				for (int i = 0; i < p; i++)
+					cursors[order[i]].advance(pivotDoc);
+			}
+
+			// Drop the exhausted cursors
+			int w = 0;
+			for (int i = 0; i < live; i++)
+				if (cursors[order[i]].valid())
+					order[w++] = order[i];
+			live = w;
+		}
+
+		PostingsList result = top.toPostingsList();
+		result.totalMatches = PostingsList.UNCOUNTED;
+		return result;
+	}
+
+	/** Sorts the first live terms of order by their current docID. */
+	private void sortByDoc(int[] order, int live) {
+		// Only one or two cursors move per step, so insertion sort is cheap
+		for (int i = 1; i < live; i++) {
+			int o = order[i];
+			int doc = cursors[o].docID();
+			int j = i;
+			while (j > 0 && cursors[order[j - 1]].docID() > doc) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = o;
+		}
+	}
+
+	/** The PageRank factor of the score of docID. */
+	private double pageRankFactor(int docID) {
+		Double rank = (pageRank == null) ? null : pageRank.get(pageRankName(docID));
+		return (rank == null) ? 1 : Math.sqrt(rank * numDocuments);
+	}
+
+	/** An upper bound of pageRankFactor over all documents. */
+	private double pageRankBound() {
+		if (pageRank == null)
+			return 1;
+		return Math.max(1, Math.sqrt(pageRank.maxRank() * numDocuments));
+	}
+
+	private static String pageRankName(int id) {
+		String name = Index.docs.name(id);
+		Matcher m = docNamePattern.matcher(name);
+		if (!m.find())
+			return name;
+		return m.group(1);
+	}
+}
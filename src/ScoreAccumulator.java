@@ -0,0 +1,188 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.Arrays;
+
+/**
+ *   Accumulates partial scores per document during term-at-a-time
+ *   ranked retrieval, without boxing docIDs.
+ *
+ *   Dense is used when docIDs are small non-negative integers (as handed
+ *   out sequentially for a HashedIndex), and indexes an array directly
+ *   by docID. Sparse is used for arbitrary docIDs (the hash codes of a
+ *   MegaIndex), and is an open-addressing hash table from int to double.
+ */
+public abstract class ScoreAccumulator {
+
+	/** Adds score to the accumulated score of docID. */
+	public abstract void add(int docID, double score);
+
+	/** Number of documents with an accumulated score. */
+	public abstract int size();
+
+	/** The docID of the i:th document with a score. */
+	public abstract int docID(int i);
+
+	/** The accumulated score of the i:th document. */
+	public abstract double score(int i);
+
+	private static final ThreadLocal<Dense> denseAccumulators = new ThreadLocal<Dense>();
+
+	/**
+	 *  Returns an empty accumulator for documents in [0, maxDocID]. The
+	 *  arrays behind it are kept per thread and reused by the next query
+	 *  on the same thread, so the accumulator must not be used after that.
+	 */
+	public static ScoreAccumulator dense(int maxDocID) {
+		Dense acc = denseAccumulators.get();
+		if (acc == null) {
+			acc = new Dense();
+			denseAccumulators.set(acc);
+		}
+		acc.reset(maxDocID + 1);
+		return acc;
+	}
+
+	/** Returns an empty accumulator for arbitrary docIDs. */
+	public static ScoreAccumulator sparse(int expectedDocs) {
+		return new Sparse(expectedDocs);
+	}
+
+
+	/**
+	 *  An array of scores indexed by docID. Instead of clearing the array
+	 *  between queries, each slot is stamped with the query it was last
+	 *  written by, and the touched documents are listed for iteration.
+	 */
+	static class Dense extends ScoreAccumulator {
+		private double[] scores = new double[0];
+		private int[] stamps = new int[0];
+		private int stamp = 0;
+		private int[] touched = new int[16];
+		private int size = 0;
+
+		void reset(int numDocs) {
+			if (scores.length < numDocs) {
+				int capacity = Math.max(numDocs, scores.length + (scores.length >> 1));
+				scores = Arrays.copyOf(scores, capacity);
+				stamps = Arrays.copyOf(stamps, capacity);
+			}
+			if (++stamp == 0) {
+				// The stamp wrapped around, so old stamps could match again
+				Arrays.fill(stamps, 0);
+				stamp = 1;
+			}
+			size = 0;
+		}
+
+		public void add(int docID, double score) {
+			if (stamps[docID] != stamp) {
+				stamps[docID] = stamp;
+				scores[docID] = score;
+				if (size == touched.length)
+					touched = Arrays.copyOf(touched, size * 2);
+				touched[size++] = docID;
+			} else {
+				scores[docID] += score;
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int docID(int i) {
+			return touched[i];
+		}
+
+		public double score(int i) {
+			return scores[touched[i]];
+		}
+	}
+
+
+	/**
+	 *  Open-addressing hash table with linear probing. Documents are
+	 *  also listed in insertion order, which gives the iteration order.
+	 */
+	static class Sparse extends ScoreAccumulator {
+		private int[] keys;
+		private double[] values;
+		private boolean[] used;
+		private int mask;
+
+		/** Table slot of each document, in insertion order. */
+		private int[] slots;
+		private int size = 0;
+
+		Sparse(int expectedDocs) {
+			int capacity = Integer.highestOneBit(Math.max(4, expectedDocs) * 2 - 1) << 1;
+			allocate(capacity);
+			slots = new int[Math.max(4, expectedDocs)];
+		}
+
+		private void allocate(int capacity) {
+			keys = new int[capacity];
+			values = new double[capacity];
+			used = new boolean[capacity];
+			mask = capacity - 1;
+		}
+
+		private static int hash(int docID) {
+			int h = docID * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		public void add(int docID, double score) {
+			int slot = hash(docID) & mask;
+			while (used[slot]) {
+				if (keys[slot] == docID) {
+					values[slot] += score;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			used[slot] = true;
+			keys[slot] = docID;
+			values[slot] = score;
+			if (size == slots.length)
+				slots = Arrays.copyOf(slots, size * 2);
+			slots[size++] = slot;
+			// Keep the load factor at most 1/2
+			if (size * 2 > keys.length)
+				grow();
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			double[] oldValues = values;
+			int[] oldSlots = slots;
+			allocate(keys.length * 2);
+			slots = new int[oldSlots.length];
+			for (int i = 0; i < size; i++) {
+				int old = oldSlots[i];
+				int slot = hash(oldKeys[old]) & mask;
+				while (used[slot])
+					slot = (slot + 1) & mask;
+				used[slot] = true;
+				keys[slot] = oldKeys[old];
+				values[slot] = oldValues[old];
+				slots[i] = slot;
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int docID(int i) {
+			return keys[slots[i]];
+		}
+
+		public double score(int i) {
+			return values[slots[i]];
+		}
+	}
+}
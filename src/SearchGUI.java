@@ -33,12 +33,45 @@ public class SearchGUI extends JFrame {
 	/** Maximum number of indices we can read from disk. */
 	public static final int MAX_NUMBER_OF_INDEX_FILES = 10;
 
+	/** Number of documents shown for a ranked query. */
+	public static final int MAX_RANKED_RESULTS = 100;
+
 	/**  The query type (either intersection, phrase, or ranked). */
 	int queryType = Index.RANKED_QUERY;
 
-	/**  The index type (either hashed or mega). */
+	/**  The index type (either hashed, mega, block or segment). */
 	int indexType = Index.HASHED_INDEX;
 
+	/**  How a hashed index keeps its postings (see HashedIndex). */
+	int storage = HashedIndex.LISTS;
+
+	/**  Memory budget of a block index, in megabytes. */
+	long blockMegabytes = 64;
+
+	/**  Number of threads used for indexing. */
+	int numThreads = 1;
+
+	/**  true if the directories should be watched for changes after indexing. */
+	boolean watch = false;
+
+	/**  Minutes between checkpoints while indexing, or 0 for no checkpoints. */
+	long checkpointMinutes = 0;
+
+	/**  true if indexing should resume from the last checkpoint. */
+	boolean resume = false;
+
+	/**  true if every file should be logged as it is indexed. */
+	boolean verbose = false;
+
+	/**  Milliseconds between progress reports while indexing. */
+	public static final long REPORT_MILLIS = 10000;
+
+	/**  Where checkpoints are written. */
+	public static final String CHECKPOINT_FILE = "./index/checkpoint";
+
+	/**  Minutes between checkpoints if no number is given. */
+	public static final long DEFAULT_CHECKPOINT_MINUTES = 10;
+
 	/**  Lock to prevent simultaneous access to the index. */
 	Object indexLock = new Object();
 
@@ -125,24 +158,31 @@ public class SearchGUI extends JFrame {
 					// (this might corrupt the index).
 					PostingsList p;
 					synchronized (indexLock) {
-						p = indexer.index.search(searchterms, queryType);
+						p = indexer.index.search(searchterms, queryType, MAX_RANKED_RESULTS);
 					}
 					StringBuffer buf = new StringBuffer();
 					buf.append(searchstring + ": ");
 					if (p != null) {
-						buf.append(p.size() + " matching documents\n\n");
+						int total = p.totalMatches();
+						if (total == PostingsList.UNCOUNTED)
+							buf.append("best " + p.size() + " matching documents");
+						else if (p.size() < total)
+							buf.append(total + " matching documents (best " + p.size() + " shown)");
+						else
+							buf.append(total + " matching documents");
+						buf.append("\n\n");
 						for (int i=0; i<p.size(); i++) {
-							PostingsEntry pe = p.get(i);
-							String filename = indexer.index.docIDs.get("" + pe.docID);
+							int docID = p.getDocID(i);
+							String filename = indexer.index.docs.name(docID);
 							buf.append(String.format(
 								"%6s  %s  ",
 								i + 1,
-								(filename == null ? pe.docID : filename)
+								(filename == null ? docID : filename)
 							));
 							if (queryType == Index.RANKED_QUERY)
-								buf.append(String.format("(%.3f)", pe.score));
+								buf.append(String.format("(%.3f)", p.getScore(i)));
 							else
-								buf.append("(" + pe.offsets.size() + ")");
+								buf.append("(" + p.getFrequency(i) + ")");
 							buf.append("\n");
 						}
 					}
@@ -220,15 +260,56 @@ public class SearchGUI extends JFrame {
 	private void index() {
 		synchronized (indexLock) {
 			resultWindow.setText("Indexing, please wait...");
+			if (resume) {
+				try {
+					if (indexer.resume())
+						resultWindow.setText("Resuming from checkpoint, please wait...");
+				} catch (IOException e) {
+					// The index may be partly restored, so don't go on
+					e.printStackTrace();
+					resultWindow.setText("Couldn't resume from " + CHECKPOINT_FILE);
+					return;
+				}
+			}
+			// Count all files first, so that the time left covers every directory
+			for (int i=0; i<dirNames.size(); i++)
+				indexer.expectFiles(new File(dirNames.get(i)));
+			indexer.stats.startReporting(System.err, REPORT_MILLIS);
 			for (int i=0; i<dirNames.size(); i++) {
 				File dokDir = new File(dirNames.get(i));
 				indexer.processFiles(dokDir);
 			}
+			// The checkpoint goes first, since finishing may merge away
+			// files that it names
+			indexer.finishCheckpoints();
+			indexer.index.finishIndexing();
+			indexer.stats.stopReporting(System.err);
 			resultWindow.setText("Done!");
 		}
 	};
 
 
+	/**
+	 *   Starts keeping the index up to date with changes to the indexed
+	 *   directories, if that was asked for.
+	 */
+	private void watch() {
+		if (!watch)
+			return;
+		if (indexType == Index.MEGA_INDEX) {
+			System.err.println("Watching is not supported for a MegaIndex");
+			return;
+		}
+		try {
+			Thread watcher = new Thread(new DirectoryWatcher(indexer, dirNames, indexLock));
+			watcher.setDaemon(true);
+			watcher.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
 	/* ----------------------------------------------- */
 
 
@@ -261,6 +342,61 @@ public class SearchGUI extends JFrame {
 				i++;
 				indexType = Index.MEGA_INDEX;
 			}
+			else if ("-b".equals(args[i])) {
+				i++;
+				indexType = Index.BLOCK_INDEX;
+				if (i < args.length && args[i].matches("\\d+"))
+					blockMegabytes = Long.parseLong(args[i++]);
+			}
+			else if ("-z".equals(args[i])) {
+				i++;
+				storage = HashedIndex.COMPRESSED;
+			}
+			else if ("-o".equals(args[i])) {
+				i++;
+				storage = HashedIndex.OFF_HEAP;
+			}
+			else if ("-s".equals(args[i])) {
+				i++;
+				indexType = Index.SEGMENT_INDEX;
+			}
+			else if ("-w".equals(args[i])) {
+				i++;
+				watch = true;
+			}
+			else if ("-c".equals(args[i])) {
+				i++;
+				checkpointMinutes = DEFAULT_CHECKPOINT_MINUTES;
+				if (i < args.length && args[i].matches("-?\\d+")) {
+					checkpointMinutes = Long.parseLong(args[i++]);
+					if (checkpointMinutes <= 0) {
+						System.err.println("Invalid checkpoint interval: " + args[i-1]);
+						System.err.println("Usage: -c [minutes], where minutes is a positive number (default " + DEFAULT_CHECKPOINT_MINUTES + ")");
+						System.exit(1);
+					}
+				}
+			}
+			else if ("-v".equals(args[i])) {
+				i++;
+				verbose = true;
+			}
+			else if ("-resume".equals(args[i])) {
+				i++;
+				resume = true;
+			}
+			else if ("-t".equals(args[i])) {
+				String arg = (++i < args.length) ? args[i++] : "";
+				try {
+					numThreads = Integer.parseInt(arg);
+				} catch (NumberFormatException e) {
+					numThreads = 0;
+				}
+				if (numThreads <= 0) {
+					System.err.println("Invalid number of threads: " + arg);
+					System.err.println("Usage: -t threads, where threads is a positive number");
+					System.exit(1);
+				}
+			}
 			else {
 				System.err.println("Unknown option: " + args[i]);
 				break;
@@ -271,13 +407,34 @@ public class SearchGUI extends JFrame {
 		//  Therefore the access to the index must be synchronized.
 		synchronized (indexLock) {
 			if (indexType == Index.HASHED_INDEX) {
-				indexer = new Indexer();
+				if (indexFiles.size() > 1)
+					System.err.println("Only one hashed index can be opened, using " + indexFiles.getFirst());
+				indexer = Indexer.hashed(indexFiles.isEmpty() ? null : indexFiles.getFirst(), storage);
+			}
+			else if (indexType == Index.BLOCK_INDEX) {
+				if (indexFiles.size() > 1)
+					System.err.println("Only one block index can be opened, using " + indexFiles.getFirst());
+				indexer = Indexer.block(indexFiles.isEmpty() ? null : indexFiles.getFirst(), blockMegabytes << 20);
+			}
+			else if (indexType == Index.SEGMENT_INDEX) {
+				if (indexFiles.size() > 1)
+					System.err.println("Only one segment index can be opened, using " + indexFiles.getFirst());
+				indexer = Indexer.segment(indexFiles.isEmpty() ? null : indexFiles.getFirst());
 			}
 			else {
 				resultWindow.setText("Creating MegaIndex, please wait...");
-				indexer = new Indexer(indexFiles);
+				indexer = Indexer.mega(indexFiles);
 				resultWindow.setText("Done!");
 			}
+			indexer.setNumThreads(numThreads);
+			indexer.setVerbose(verbose);
+			indexer.stats.register();
+			if (checkpointMinutes > 0 || resume) {
+				if (indexType == Index.MEGA_INDEX)
+					System.err.println("Checkpoints are not supported for a MegaIndex");
+				else
+					indexer.setCheckpoints(new File(CHECKPOINT_FILE), (checkpointMinutes > 0 ? checkpointMinutes : DEFAULT_CHECKPOINT_MINUTES) * 60000);
+			}
 			if (linksFile != null) {
 				resultWindow.setText("Generating PageRank...");
 				indexer.index.setPageRank(new PageRank(linksFile, PageRank.ALGORITHM.MC_COMPLETE_CYCLIC));
@@ -295,6 +452,7 @@ public class SearchGUI extends JFrame {
 		s.createGUI();
 		s.decodeArgs(args);
 		s.index();
+		s.watch();
 	}
 
 }
@@ -0,0 +1,310 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *   The postings of a set of terms, stored in three files that are read
+ *   through memory maps.
+ *
+ *   NAME.post holds the postings list of each term, in sorted term
+ *   order, as encoded by PostingsCodec. NAME.terms holds the terms in
+ *   the same order, as UTF-8, back to back. NAME.dict holds for each
+ *   term the offset of the term in the terms file and of its postings in
+ *   the postings file, as two 4-byte ints, the largest tf / sqrt(
+ *   document length) of its postings, as a double, which ranked search
+ *   uses as a bound (see RankedSearch), and the docID of its last
+ *   posting, as an int. Last come the lengths of the two files, in an
+ *   entry of the same size. The term dictionary can thus be
+ *   binary searched where it is mapped, without being read into memory.
+ *
+ *   A segment is written once, by a Segment.Writer, and not changed
+ *   afterwards. Each of its files must be smaller than 2 GB, which is
+ *   the most that can be mapped as one buffer.
+ */
+public class Segment {
+
+	/** Size of a term's entry in the dict file. */
+	private static final int ENTRY_BYTES = 20;
+
+	/** The directory of the files, and the name they start with. */
+	final File dir;
+	final String name;
+
+	private final ByteBuffer dict;
+	private final ByteBuffer terms;
+	private final ByteBuffer postings;
+
+	/** Number of terms. */
+	private final int size;
+
+	/** Opens the segment called name in dir. */
+	public Segment(File dir, String name) throws IOException {
+		this.dir = dir;
+		this.name = name;
+		dict = map(file(dir, name, ".dict"));
+		terms = map(file(dir, name, ".terms"));
+		postings = map(file(dir, name, ".post"));
+		size = dict.capacity() / ENTRY_BYTES - 1;
+		if (size < 0 || dict.getInt(size * ENTRY_BYTES) != terms.capacity()
+			|| dict.getInt(size * ENTRY_BYTES + 4) != postings.capacity())
+			throw new IOException("Segment " + name + " in " + dir + " is damaged");
+	}
+
+	/** Maps file into memory, for reading. */
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/** The file of the segment called name with the given suffix. */
+	static File file(File dir, String name, String suffix) {
+		return new File(dir, name + suffix);
+	}
+
+	/** Number of terms in the segment. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns term i, in sorted order. */
+	public String term(int i) {
+		int start = dict.getInt(i * ENTRY_BYTES);
+		int end = dict.getInt((i + 1) * ENTRY_BYTES);
+		byte[] utf8 = new byte[end - start];
+		ByteBuffer b = terms.duplicate();
+		b.position(start);
+		b.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *  Returns the number of term, or (-(insertion point) - 1) if the
+	 *  segment does not have it.
+	 */
+	public int find(String term) {
+		byte[] utf8 = term.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(mid, utf8);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 *  Compares term i with the term encoded as utf8, in the order of
+	 *  String.compareTo, where the term is in the terms file.
+	 */
+	private int compare(int i, byte[] utf8) {
+		int start = dict.getInt(i * ENTRY_BYTES);
+		int length = dict.getInt((i + 1) * ENTRY_BYTES) - start;
+		int n = Math.min(length, utf8.length);
+		for (int k = 0; k < n; k++) {
+			int a = terms.get(start + k) & 0xff;
+			int b = utf8[k] & 0xff;
+			if (a != b)
+				return utf16Order(a) - utf16Order(b);
+		}
+		return length - utf8.length;
+	}
+
+	/**
+	 *  Ranks a byte of UTF-8 so that the first bytes that differ in two
+	 *  terms order them as String.compareTo does. UTF-8 sorts characters
+	 *  by code point, but in UTF-16 those above U+FFFF (first byte 0xF0
+	 *  and up) are surrogate pairs, which come before U+E000 to U+FFFF
+	 *  (first byte 0xEE or 0xEF). Bytes that differ after the first of a
+	 *  character are in the same order either way.
+	 */
+	private static int utf16Order(int b) {
+		if (b == 0xee || b == 0xef)
+			return b + 0x10;
+		return b;
+	}
+
+	/** Decodes the postings of term i, with their stored bound. */
+	public PostingsList postings(int i) {
+		PostingsList list = PostingsCodec.decode(postings, dict.getInt(i * ENTRY_BYTES + 4));
+		list.maxTfNorm = maxTfNorm(i);
+		return list;
+	}
+
+	/** The largest tf / sqrt(document length) of the postings of term i. */
+	public double maxTfNorm(int i) {
+		return dict.getDouble(i * ENTRY_BYTES + 8);
+	}
+
+	/**
+	 *  Returns a cursor over the postings of term i, which decodes them
+	 *  block by block where they are mapped.
+	 */
+	public PostingsCursor cursor(int i) {
+		PostingsCodec.Input in = new PostingsCodec.Input(postings, dict.getInt(i * ENTRY_BYTES + 4));
+		int n = in.readVInt();
+		final double bound = maxTfNorm(i);
+		return new PostingsCodec.Cursor(postings, in.pos, n, dict.getInt(i * ENTRY_BYTES + 16)) {
+				double maxTfNorm() {
+					return bound;
+				}
+			};
+	}
+
+	/** Returns the postings of term, or null if the segment does not have it. */
+	public PostingsList postings(String term) {
+		int i = find(term);
+		return (i < 0) ? null : postings(i);
+	}
+
+	/** Deletes the files of the segment. It must not be used afterwards. */
+	void delete() {
+		file(dir, name, ".dict").delete();
+		file(dir, name, ".terms").delete();
+		file(dir, name, ".post").delete();
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  Steps through the terms of a segment in sorted order, for merging
+	 *  segments. Cursors are ordered by their current term, and cursors
+	 *  at the same term by the order they were given.
+	 */
+	static class TermCursor implements Comparable<TermCursor> {
+		final Segment segment;
+		private final int order;
+
+		/** The number of the current term, and the term. */
+		int i;
+		String term;
+
+		/** Creates a cursor before term number from of segment. */
+		TermCursor(Segment segment, int order, int from) {
+			this.segment = segment;
+			this.order = order;
+			i = from - 1;
+		}
+
+		/** Moves to the next term. */
+		boolean next() {
+			if (++i >= segment.size())
+				return false;
+			term = segment.term(i);
+			return true;
+		}
+
+		/** Decodes the postings of the current term. */
+		PostingsList postings() {
+			return segment.postings(i);
+		}
+
+		public int compareTo(TermCursor other) {
+			int c = term.compareTo(other.term);
+			return (c != 0) ? c : Integer.compare(order, other.order);
+		}
+	}
+
+
+	/**
+	 *  Writes a new segment. Terms must be added in sorted order, each
+	 *  once, and the segment can be opened when the writer is closed.
+	 */
+	public static class Writer {
+		private final File dir;
+		private final String name;
+		private final DataOutputStream dict;
+		private final DataOutputStream terms;
+		private final DataOutputStream postings;
+
+		/** Lengths of the terms and postings files so far. */
+		private long termBytes = 0;
+		private long postingsBytes = 0;
+
+		private final PostingsCodec.Output encoded = new PostingsCodec.Output();
+		private String last;
+
+		public Writer(File dir, String name) throws IOException {
+			this.dir = dir;
+			this.name = name;
+			dict = open(file(dir, name, ".dict"));
+			terms = open(file(dir, name, ".terms"));
+			postings = open(file(dir, name, ".post"));
+		}
+
+		private static DataOutputStream open(File file) throws IOException {
+			return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+
+		/**
+		 *  Adds term with the postings in list, leaving out those of
+		 *  documents deleted in docs (unless docs is null). Nothing is
+		 *  added if no postings are left.
+		 */
+		public void add(String term, PostingsList list, DocumentTable docs) throws IOException {
+			if (last != null && last.compareTo(term) >= 0)
+				throw new IllegalArgumentException("Term " + term + " added after " + last);
+			if (docs != null)
+				list = list.withoutDeleted(docs);
+			if (list.size() == 0)
+				return;
+			encoded.clear();
+			PostingsCodec.encode(list, null, encoded);
+			last = term;
+
+			byte[] utf8 = term.getBytes(StandardCharsets.UTF_8);
+			if (termBytes + utf8.length > Integer.MAX_VALUE || postingsBytes + encoded.size > Integer.MAX_VALUE)
+				throw new IOException("Segment " + name + " is too large");
+			writeEntry(list.maxTfNorm(), list.getDocID(list.size() - 1));
+			terms.write(utf8);
+			termBytes += utf8.length;
+			postings.write(encoded.bytes, 0, encoded.size);
+			postingsBytes += encoded.size;
+		}
+
+		/** Length of the postings file so far. */
+		public long bytes() {
+			return postingsBytes;
+		}
+
+		/** Finishes the files, and opens the segment. */
+		public Segment close() throws IOException {
+			writeEntry(0, 0);
+			dict.close();
+			terms.close();
+			postings.close();
+			return new Segment(dir, name);
+		}
+
+		private void writeEntry(double maxTfNorm, int lastDocID) throws IOException {
+			dict.writeInt((int) termBytes);
+			dict.writeInt((int) postingsBytes);
+			dict.writeDouble(maxTfNorm);
+			dict.writeInt(lastDocID);
+		}
+	}
+}
@@ -0,0 +1,498 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ *   An index kept on disk as segments (see Segment), which are read
+ *   through memory maps rather than deserialized, and which can be
+ *   saved and opened again.
+ *
+ *   Postings are collected in memory, as in a HashedIndex, and written
+ *   as a new segment once FLUSH_TOKENS tokens have been collected, and
+ *   when indexing is finished (see finishIndexing). Segments are only
+ *   written between documents, and docIDs increase, so the postings of
+ *   a term are those of each segment that has the term, in segment
+ *   order. Searches read them there through cursors that go from one
+ *   segment to the next, and do not see documents that are still in
+ *   memory. When indexing is finished, or the index is saved, segments
+ *   are merged into one by a k-way merge on their terms if there are
+ *   more than MAX_SEGMENTS of them. Compacting the index does the same,
+ *   and leaves out the postings of deleted documents.
+ *
+ *   The segments of an index called NAME are NAME.0, NAME.1 and so on,
+ *   in ./index. NAME.segments holds the document table of the index and
+ *   the names of its segments. It is written by cleanup(), after which
+ *   the index can be opened again by its name.
+ */
+public class SegmentIndex implements Index {
+
+	/** The directory where segments are written. */
+	private static final String path = "./index";
+
+	/** The buffer is written as a segment after a document once it holds this many tokens. */
+	private static final int FLUSH_TOKENS = 1 << 22;
+
+	/** Segments are merged when indexing is finished if there are more than this many. */
+	private static final int MAX_SEGMENTS = 16;
+
+	/** A merge starts a new segment when the postings file is this large. */
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	/** The name of the index, which its files start with. */
+	private String name;
+
+	/** The segments, oldest first. */
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	/** The number of the next segment to be written. */
+	private int nextSegment = 0;
+
+	/** Postings not yet written to a segment, by the term IDs of bufferTerms. */
+	private PostingsList[] buffer = new PostingsList[1024];
+	private TermDictionary bufferTerms = new TermDictionary();
+
+	/** Number of tokens in the buffer. */
+	private int bufferedTokens = 0;
+
+	/** The docID of the document being indexed. */
+	private int currentDocID = -1;
+
+	private PageRank pageRank;
+
+
+	/**
+	 *  Creates a new index, and invents a name for it.
+	 */
+	public SegmentIndex() {
+		this(generateName());
+	}
+
+	/**
+	 *  Opens the index called name, or creates a new index by that name
+	 *  if there is none. The documents of the index are added to docs.
+	 */
+	public SegmentIndex(String name) {
+		this.name = name;
+		new File(path).mkdirs();
+		File manifest = manifest();
+		if (!manifest.exists())
+			return;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+			try {
+				docs.addAll((DocumentTable) in.readObject());
+				readSegments(in);
+			}
+			finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Couldn't open index " + name, e);
+		}
+	}
+
+	/** Invents a name that no saved index in the directory has. */
+	private static String generateName() {
+		long s = System.currentTimeMillis();
+		while (new File(path, s + ".segments").exists())
+			s++;
+		return "" + s;
+	}
+
+	/** The file with the document table and segment names. */
+	private File manifest() {
+		return new File(path, name + ".segments");
+	}
+
+	/**
+	 *  Inserts this token in the index. The buffer is written as a
+	 *  segment when a new document starts and the buffer is full.
+	 */
+	public void insert(CharSequence token, int docID, int offset) {
+		if (docID != currentDocID) {
+			if (bufferedTokens >= FLUSH_TOKENS)
+				flush();
+			currentDocID = docID;
+		}
+
+		int termID = bufferTerms.add(token);
+		if (termID == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		PostingsList list = buffer[termID];
+		if (list == null) {
+			list = new PostingsList();
+			buffer[termID] = list;
+		}
+		list.add(docID, offset);
+		bufferedTokens++;
+	}
+
+	/**
+	 *  Returns the postings for a specific term in the segments, or an
+	 *  empty list if the term is not in them.
+	 */
+	public PostingsList getPostings(String token) {
+		PostingsList result = null;
+		double bound = 0;
+		for (Segment segment : segments) {
+			PostingsList list = segment.postings(token);
+			if (list == null)
+				continue;
+			bound = Math.max(bound, list.maxTfNorm);
+			if (result == null)
+				result = list;
+			else
+				result.appendAll(list);
+		}
+		if (result == null)
+			return new PostingsList();
+		// The bound of the postings is the largest of the segments' bounds
+		result.maxTfNorm = bound;
+		return result;
+	}
+
+	/**
+	 *  Returns a cursor over the postings of a term in the segments,
+	 *  which decodes them where they are mapped.
+	 */
+	PostingsCursor cursor(String token) {
+		List<PostingsCursor> parts = new ArrayList<PostingsCursor>();
+		for (Segment segment : segments) {
+			int i = segment.find(token);
+			if (i >= 0)
+				parts.add(segment.cursor(i));
+		}
+		if (parts.size() == 1)
+			return parts.get(0);
+		return new ChainedCursor(parts);
+	}
+
+	/**
+	 *  Searches the index for postings matching the query in @code{searchterms}.
+	 */
+	public PostingsList search(LinkedList<String> searchterms, int queryType) {
+		return search(searchterms, queryType, Integer.MAX_VALUE);
+	}
+
+	/**
+	 *  Searches the index for postings matching the query in @code{searchterms}.
+	 *  Ranked queries only return the k best documents.
+	 */
+	public PostingsList search(LinkedList<String> searchterms, int queryType, int k) {
+		PostingsList result;
+		if (queryType == Index.RANKED_QUERY)
+			result = RankedSearch.search(this, pageRank, searchterms, k);
+		else if (queryType == Index.PHRASE_QUERY)
+			result = QueryPlanner.phrase(this, searchterms);
+		else if (queryType == Index.UNION_QUERY)
+			result = QueryPlanner.union(this, searchterms);
+		else
+			result = QueryPlanner.intersect(this, searchterms);
+		return (result == null) ? new PostingsList() : result;
+	}
+
+	public void setPageRank(PageRank p) {
+		this.pageRank = p;
+	}
+
+	/**
+	 *  Merges all segments into one, without the postings of deleted
+	 *  documents.
+	 */
+	public void compact() {
+		flush();
+		try {
+			merge();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 *  Writes the buffer as a segment, and merges the segments if there
+	 *  are more than MAX_SEGMENTS.
+	 */
+	public void finishIndexing() {
+		flush();
+		if (segments.size() <= MAX_SEGMENTS)
+			return;
+		try {
+			merge();
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't merge segments", e);
+		}
+	}
+
+	/**
+	 *  Writes the buffer as a segment, and then the name of the index and
+	 *  the names of its segments. The segments are not merged while
+	 *  indexing, so they stay as they are until indexing is finished.
+	 */
+	public void writeCheckpoint(ObjectOutputStream out) throws IOException {
+		flush();
+		out.writeUTF(name);
+		writeSegments(out);
+	}
+
+	/**
+	 *  Takes over the segments of a checkpoint. Segments of the index
+	 *  that are not part of it were written after it, and are deleted.
+	 */
+	public void readCheckpoint(ObjectInputStream in) throws IOException {
+		name = in.readUTF();
+		readSegments(in);
+	}
+
+	/**
+	 *  Writes the buffer as a segment, merges the segments if there are
+	 *  more than MAX_SEGMENTS, and saves the document table and the
+	 *  names of the segments, so that the index can be opened again.
+	 */
+	public void cleanup() {
+		flush();
+		try {
+			if (segments.size() > MAX_SEGMENTS)
+				merge();
+			save();
+			System.err.println("Saved index " + name);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/** Writes the number of the next segment, and the names of the segments. */
+	private void writeSegments(ObjectOutputStream out) throws IOException {
+		out.writeInt(nextSegment);
+		out.writeInt(segments.size());
+		for (Segment segment : segments)
+			out.writeUTF(segment.name);
+	}
+
+	/**
+	 *  Opens the segments written by writeSegments, and deletes the other
+	 *  segment files of the index.
+	 */
+	private void readSegments(ObjectInputStream in) throws IOException {
+		nextSegment = in.readInt();
+		int n = in.readInt();
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < n; i++) {
+			String s = in.readUTF();
+			segments.add(new Segment(new File(path), s));
+			names.add(s);
+		}
+		File[] fs = new File(path).listFiles();
+		if (fs == null)
+			return;
+		for (File f : fs) {
+			String s = f.getName();
+			int dot = s.lastIndexOf('.');
+			if (s.startsWith(name + ".") && !s.endsWith(".segments") && !names.contains(s.substring(0, dot)))
+				f.delete();
+		}
+	}
+
+	/**
+	 *  Writes the document table and the segment names to the manifest.
+	 *  It is written to a temporary file first, so that the manifest is
+	 *  always complete.
+	 */
+	private void save() throws IOException {
+		File manifest = manifest();
+		File tmp = new File(path, manifest.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos));
+			out.writeObject(docs);
+			writeSegments(out);
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+		Files.move(tmp.toPath(), manifest.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** The name for a new segment. */
+	private String newSegmentName() {
+		return name + "." + nextSegment++;
+	}
+
+	/** Writes the buffer as a new segment, and clears the buffer. */
+	private void flush() {
+		int size = bufferTerms.size();
+		if (size == 0)
+			return;
+		String[] sorted = new String[size];
+		for (int t = 0; t < size; t++)
+			sorted[t] = bufferTerms.term(t);
+		Arrays.sort(sorted);
+		try {
+			Segment.Writer out = new Segment.Writer(new File(path), newSegmentName());
+			for (String term : sorted)
+				out.add(term, buffer[bufferTerms.get(term)], null);
+			segments.add(out.close());
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't write segment to disk", e);
+		}
+		Arrays.fill(buffer, 0, size, null);
+		bufferTerms.clear();
+		bufferedTokens = 0;
+	}
+
+	/**
+	 *  Merges all segments into new ones, without the postings of deleted
+	 *  documents. A new segment is started whenever the postings file of
+	 *  the current one gets larger than MAX_SEGMENT_BYTES, so there is
+	 *  usually only one. If the index has been saved, the manifest is
+	 *  updated before the old segments are deleted.
+	 */
+	private void merge() throws IOException {
+		List<Segment> inputs = new ArrayList<Segment>(segments);
+		PriorityQueue<Segment.TermCursor> queue = new PriorityQueue<Segment.TermCursor>();
+		for (int i = 0; i < inputs.size(); i++) {
+			Segment.TermCursor c = new Segment.TermCursor(inputs.get(i), i, 0);
+			if (c.next())
+				queue.add(c);
+		}
+
+		List<Segment> merged = new ArrayList<Segment>();
+		Segment.Writer out = null;
+		while (!queue.isEmpty()) {
+			// Concatenate the postings of the smallest term, in segment order
+			String term = queue.peek().term;
+			PostingsList list = null;
+			while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+				Segment.TermCursor c = queue.poll();
+				PostingsList postings = c.postings();
+				if (list == null)
+					list = postings;
+				else
+					list.appendAll(postings);
+				if (c.next())
+					queue.add(c);
+			}
+			if (out == null)
+				out = new Segment.Writer(new File(path), newSegmentName());
+			out.add(term, list, docs);
+			if (out.bytes() >= MAX_SEGMENT_BYTES) {
+				merged.add(out.close());
+				out = null;
+			}
+		}
+		if (out != null)
+			merged.add(out.close());
+
+		segments.clear();
+		segments.addAll(merged);
+		if (manifest().exists())
+			save();
+		for (Segment segment : inputs)
+			segment.delete();
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/**
+	 *  A cursor over the postings of a term in several segments, one
+	 *  segment after the other. The docIDs of a segment are all larger
+	 *  than those of the segments before it, so the entries are in docID
+	 *  order.
+	 */
+	private static class ChainedCursor extends PostingsCursor {
+		private final PostingsCursor[] parts;
+		private final int size;
+
+		/** The current part. */
+		private int p = 0;
+
+		ChainedCursor(List<PostingsCursor> parts) {
+			this.parts = parts.toArray(new PostingsCursor[parts.size()]);
+			int n = 0;
+			for (PostingsCursor c : parts)
+				n += c.size();
+			size = n;
+			skipEnded();
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int lastDocID() {
+			return parts[parts.length - 1].lastDocID();
+		}
+
+		public boolean valid() {
+			return p < parts.length && parts[p].valid();
+		}
+
+		public int docID() {
+			return parts[p].docID();
+		}
+
+		public int freq() {
+			return parts[p].freq();
+		}
+
+		public void next() {
+			parts[p].next();
+			skipEnded();
+		}
+
+		public void advance(int target) {
+			// Parts that end before target are skipped without being read
+			while (p < parts.length - 1 && parts[p].lastDocID() < target)
+				p++;
+			if (p < parts.length) {
+				parts[p].advance(target);
+				skipEnded();
+			}
+		}
+
+		void addTo(PostingsList list) {
+			parts[p].addTo(list);
+		}
+
+		/** The largest bound of the parts, or NaN if one has none. */
+		double maxTfNorm() {
+			double max = 0;
+			for (PostingsCursor c : parts)
+				max = Math.max(max, c.maxTfNorm());
+			return max;
+		}
+
+		/** Moves on from parts that have no more entries, unless at the last. */
+		private void skipEnded() {
+			while (p < parts.length - 1 && !parts[p].valid())
+				p++;
+		}
+	}
+}
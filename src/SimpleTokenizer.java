@@ -8,8 +8,18 @@
 
 import java.io.Reader;
 import java.io.IOException;
+import java.util.Arrays;
 
 
+/**
+ *   Splits text into normalized tokens.
+ *
+ *   Tokens can be read as Strings with hasMoreTokens() and nextToken(),
+ *   or without allocating anything with next() and token(), which gives
+ *   the current token as a CharSequence backed by the tokenizer's
+ *   buffer. The indexes copy it into a String only the first time they
+ *   see the term.
+ */
 public class SimpleTokenizer {
 
 	/** 
@@ -23,21 +33,27 @@ public class SimpleTokenizer {
 	
 	/** 
 	 *  Characters are read @code{BUFFER_LENGTH} characters at a
-	 *  time into @code{buf}.
+	 *  time into @code{buf}. The buffer grows if a token does not fit.
 	 */
 	char[] buf = new char[BUFFER_LENGTH];
 
 	/** The current position in the buffer. */
 	int ptr = 0;
 
-	/** Starting position of current token, or -1 if we're between tokens. */
-	int tokenStart = -1;
+	/** End of the characters read into the buffer. */
+	int end = 0;
 
-	/** The next token to emit. */
-	String nextTok;
+	/** @code{true} once the reader has no more characters. */
+	boolean eof = false;
 
-	/** @code{true} if we've started reading tokens. */
-	boolean started_reading = false;
+	/** The current token, valid until the next call to next(). */
+	private final Token token = new Token();
+
+	/** @code{true} if next() has been called by hasMoreTokens() but the token not taken yet. */
+	private boolean peeked = false;
+
+	/** What the peeking call to next() returned. */
+	private boolean hasNext;
 
 	/** Handling of non-standard characters */
 	static final char[] special_char =
@@ -46,10 +62,31 @@ public class SimpleTokenizer {
 	/** 
 	 *  What special characters should be translated into. 
 	 *  NB: This array should have the same size as the one above!
+	 *  Characters translated into '#' are part of tokens, but are
+	 *  removed from them.
 	 */
 	static final char[] translation =
 	{ 'a', 'a', 'a', 'å', 'ä', 'e', 'e', 'e', 'i', 'n', 'ö', 'o', 'ü', 'u', 'u', 'u', 'å', 'ä', 'ö', 'å', 'ä', 'ä', 'ö', 'ö', 'ö', 'ö', '#' };
 
+	/** 
+	 *  The normalized counterpart of every character, or 0 for characters
+	 *  that cannot occur within a token.
+	 */
+	private static final char[] table = new char[Character.MAX_VALUE + 1];
+
+	static {
+		for ( char c='0'; c<='9'; c++ ) {
+			table[c] = c;
+		}
+		for ( char c='a'; c<='z'; c++ ) {
+			table[c] = c;
+			table[c-32] = c;
+		}
+		for ( int i=0; i<special_char.length; i++ ) {
+			table[special_char[i]] = translation[i];
+		}
+	}
+
 	public SimpleTokenizer( Reader reader ) {
 		this.reader = reader;
 	}
@@ -81,24 +118,12 @@ public class SimpleTokenizer {
 	 */
 
 	public static boolean normalize( char[] buf, int ptr ) {
-		char c = buf[ptr];
-		if (( c >= '0' && c <= '9' ) ||
-			( c >= 'a' && c <= 'z' )) {
-			return true;
-		}
-		else if ( c >= 'A' && c <= 'Z' ) {
-			buf[ptr] = (char)(c+32);
-			return true;
-		}
-		else {
-			for ( int i=0; i<special_char.length; i++ ) {
-				if ( special_char[i] == c ) {
-					buf[ptr] = translation[i];
-					return true;
-				}
-			}
+		char c = table[buf[ptr]];
+		if ( c == 0 ) {
 			return false;
 		}
+		buf[ptr] = c;
+		return true;
 	}
 
 
@@ -107,11 +132,11 @@ public class SimpleTokenizer {
 	 *  read, and @code{false} otherwise.
 	 */
 	public boolean hasMoreTokens() throws IOException {
-		if ( !started_reading ) {
-			nextTok = readToken();
-			started_reading = true;
+		if ( !peeked ) {
+			hasNext = next();
+			peeked = true;
 		}
-		return ( nextTok != null );
+		return hasNext;
 	}
 	
 
@@ -120,97 +145,155 @@ public class SimpleTokenizer {
 	 *  are no more tokens.
 	 */
 	public String nextToken() throws IOException { 
-		String s = null;
-		if ( !started_reading ) {
-			s = readToken();
-			if ( s != null ) {
-				s = s.replaceAll( "#", "" );
-				nextTok = readToken();
-			}
-			return s;
-		}
-		else {
-			if ( nextTok != null ) {
-				s = nextTok.replaceAll( "#", "" );
-			}
-			nextTok = readToken();
-			return s;
+		if ( !hasMoreTokens() ) {
+			return null;
 		}
+		peeked = false;
+		return token.toString();
 	}
 
 
 	/**
-	 *  Reads the next token. 
-	 */ 
-	private String readToken() throws IOException {
-		if ( started_reading && buf[ptr] == 0 ) {
-			// No more tokens to be read
-			return null;
-		}
-		if ( !started_reading ) {
-			refillBuffer( 0 );
-			started_reading = true;
+	 *  Moves on to the next token, which token() then returns.
+	 *
+	 *  @return @code{false} if there are no more tokens.
+	 */
+	public boolean next() throws IOException {
+		if ( peeked ) {
+			peeked = false;
+			return hasNext;
 		}
-		String token_found = null;
-		while ( buf[ptr] != 0 ) {
-			if ( tokenStart < 0 ) {
-				if ( !normalize( buf, ptr )) {
-					// Skip whitespace etc.
-					ptr++;
+		int tokenStart = -1;
+		boolean removed = false;
+		while ( true ) {
+			if ( ptr == end ) {
+				if ( eof ) {
+					return tokenStart >= 0 && setToken( tokenStart, removed );
 				}
-				else {
-					// A token starts here
-					tokenStart = ptr++;
+				refillBuffer( tokenStart );
+				if ( tokenStart >= 0 ) {
+					tokenStart = 0;
 				}
+				continue;
 			}
-			else {
-				if ( normalize( buf, ptr )) {
-					// We're in the middle of a token
-					ptr++;
-				}
-				else {
+			char c = table[buf[ptr]];
+			if ( c == 0 ) {
+				if ( tokenStart >= 0 && setToken( tokenStart, removed )) {
 					// End of token
-					token_found = new String( buf, tokenStart, ptr-tokenStart );
-					tokenStart = -1;
 					ptr++;
+					return true;
 				}
+				// Skip whitespace etc., and tokens that had all
+				// their characters removed
+				tokenStart = -1;
+				removed = false;
+				ptr++;
 			}
-			if ( ptr == BUFFER_LENGTH ) {
-				// The buffer has been read, so refill it
-				if ( tokenStart >= 0 ) {
-					// We're in the middle of a token. Copy the parts
-					// of the token we have read already into the 
-					// beginning of the buffer.
-					java.lang.System.arraycopy( buf, tokenStart, buf, 0, BUFFER_LENGTH-tokenStart );
-					refillBuffer( BUFFER_LENGTH-tokenStart );
-					ptr = BUFFER_LENGTH-tokenStart;
-					tokenStart = 0;
+			else {
+				buf[ptr] = c;
+				if ( c == '#' ) {
+					removed = true;
 				}
-				else {
-					refillBuffer( 0 );
-					ptr = 0;
+				if ( tokenStart < 0 ) {
+					// A token starts here
+					tokenStart = ptr;
 				}
+				ptr++;
 			}
-			if ( token_found != null ) {
-				return token_found;
+		}
+	}
+
+
+	/**
+	 *  The current token. It is only valid until the next call to
+	 *  next(), hasMoreTokens() or nextToken().
+	 */
+	public CharSequence token() {
+		return token;
+	}
+
+
+	/**
+	 *  Makes buf[start..ptr) the current token, with any '#' removed.
+	 *  Returns @code{false} if no characters are left.
+	 */
+	private boolean setToken( int start, boolean removed ) {
+		int length = ptr - start;
+		if ( removed ) {
+			int w = start;
+			for ( int i=start; i<ptr; i++ ) {
+				if ( buf[i] != '#' ) {
+					buf[w++] = buf[i];
+				}
 			}
+			length = w - start;
 		}
-		return null;
+		token.start = start;
+		token.length = length;
+		return length > 0;
 	}
 
 
 	/**
-	 *  Refills the buffer and adds end_of_file "\0" at the appropriate place.
+	 *  Reads more characters into the buffer. If a token has been
+	 *  started at @code{tokenStart}, its characters are first moved to
+	 *  the beginning of the buffer, which is grown if they fill it.
 	 */
-	private void refillBuffer( int start ) throws IOException {
-		int chars_read = reader.read( buf, start, BUFFER_LENGTH-start );
-		if ( chars_read < BUFFER_LENGTH-start ) {
-			buf[chars_read] = 0;
+	private void refillBuffer( int tokenStart ) throws IOException {
+		if ( tokenStart >= 0 ) {
+			// We're in the middle of a token. Copy the parts
+			// of the token we have read already into the 
+			// beginning of the buffer.
+			int length = ptr - tokenStart;
+			System.arraycopy( buf, tokenStart, buf, 0, length );
+			ptr = length;
+			if ( length == buf.length ) {
+				buf = Arrays.copyOf( buf, buf.length * 2 );
+			}
+		}
+		else {
+			ptr = 0;
+		}
+		int chars_read = reader.read( buf, ptr, buf.length-ptr );
+		if ( chars_read < 0 ) {
+			eof = true;
+			end = ptr;
+		}
+		else {
+			end = ptr + chars_read;
 		}
 	}
-}
 
 
+	/**
+	 *  A view of the current token in the buffer. Its hash code is the
+	 *  one a String with the same characters has.
+	 */
+	private class Token implements CharSequence {
+		int start, length;
 
+		public int length() {
+			return length;
+		}
 
+		public char charAt( int i ) {
+			return buf[start+i];
+		}
 
+		public CharSequence subSequence( int from, int to ) {
+			return toString().substring( from, to );
+		}
+
+		public int hashCode() {
+			int h = 0;
+			for ( int i=start; i<start+length; i++ ) {
+				h = 31*h + buf[i];
+			}
+			return h;
+		}
+
+		public String toString() {
+			return new String( buf, start, length );
+		}
+	}
+}
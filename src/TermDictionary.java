@@ -0,0 +1,116 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.Arrays;
+
+/**
+ *   Gives each distinct term a term ID. The IDs are dense: they are
+ *   given out as 0, 1, 2 and so on, so they can be used as array indexes.
+ *
+ *   A term is looked up by its characters, so a token from the
+ *   tokenizer only becomes a String the first time its term is seen.
+ *   The terms are kept in an open-addressing hash table of term IDs. Not
+ *   thread-safe.
+ */
+public class TermDictionary {
+
+	/** The terms by term ID, and their hash codes. */
+	private String[] terms = new String[1 << 11];
+	private int[] hashes = new int[1 << 11];
+
+	/** Term ID + 1 of the term in each slot, or 0 for an empty slot. */
+	private int[] table = new int[1 << 12];
+
+	private int size = 0;
+
+	/** Returns the term ID of term, and gives it a new one if it has none. */
+	public int add(CharSequence term) {
+		int h = term.hashCode();
+		int slot = find(term, h);
+		if (table[slot] != 0)
+			return table[slot] - 1;
+		if (size == terms.length)
+			grow();
+		int id = size++;
+		terms[id] = term.toString();
+		hashes[id] = h;
+		if (table.length != 2 * terms.length)
+			rehash();
+		else
+			table[slot] = id + 1;
+		return id;
+	}
+
+	/** Returns the term ID of term, or -1 if it has none. */
+	public int get(CharSequence term) {
+		return table[find(term, term.hashCode())] - 1;
+	}
+
+	/** Returns the term with the given term ID. */
+	public String term(int id) {
+		return terms[id];
+	}
+
+	/** Number of terms, which is one more than the largest term ID. */
+	public int size() {
+		return size;
+	}
+
+	/** Forgets all terms, so that term IDs are given out from 0 again. */
+	public void clear() {
+		Arrays.fill(terms, 0, size, null);
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	/** The slot of term, or the empty slot where it would go. */
+	private int find(CharSequence term, int h) {
+		int mask = table.length - 1;
+		int slot = mix(h) & mask;
+		int id;
+		while ((id = table[slot] - 1) >= 0) {
+			if (hashes[id] == h && contentEquals(terms[id], term))
+				break;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static boolean contentEquals(String s, CharSequence term) {
+		if (s == term)
+			return true;
+		int n = s.length();
+		if (n != term.length())
+			return false;
+		for (int i = 0; i < n; i++) {
+			if (s.charAt(i) != term.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/** Spreads the bits of h, since String hash codes of short terms are close together. */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void grow() {
+		terms = Arrays.copyOf(terms, terms.length * 2);
+		hashes = Arrays.copyOf(hashes, hashes.length * 2);
+	}
+
+	/** Rebuilds the table at twice the capacity of terms, so it stays at most half full. */
+	private void rehash() {
+		table = new int[2 * terms.length];
+		int mask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = mix(hashes[id]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = id + 1;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.Arrays;
+
+/**
+ *   Keeps the k best scoring documents seen so far, in a bounded binary
+ *   min-heap with the worst kept document at the root. Offering a
+ *   document costs O(log k), and only k slots are ever allocated.
+ *
+ *   Higher scores are better; among equal scores, the lower docID wins.
+ */
+public class TopDocs {
+	private final int k;
+	private int size = 0;
+	private int[] docIDs;
+	private double[] scores;
+
+	/** Number of documents offered. */
+	private int offered = 0;
+
+	/**
+	 *  Creates a heap for the k best documents. expected is a hint of
+	 *  how many documents will be offered, so that no more space than
+	 *  needed is allocated when k is large.
+	 */
+	public TopDocs(int k, int expected) {
+		this.k = Math.max(k, 0);
+		int capacity = Math.max(1, Math.min(this.k, expected));
+		docIDs = new int[capacity];
+		scores = new double[capacity];
+	}
+
+	public TopDocs(int k) {
+		this(k, k);
+	}
+
+	/** Number of documents kept. */
+	public int size() {
+		return size;
+	}
+
+	/** True if k documents are kept, so that threshold() is meaningful. */
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/** The score a document must beat to be kept, once the heap is full. */
+	public double threshold() {
+		return size == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/** Offers a document. Returns true if it was kept. */
+	public boolean offer(int docID, double score) {
+		offered++;
+		if (size < k) {
+			if (size == docIDs.length) {
+				int capacity = Math.min(k, docIDs.length * 2);
+				docIDs = Arrays.copyOf(docIDs, capacity);
+				scores = Arrays.copyOf(scores, capacity);
+			}
+			docIDs[size] = docID;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+		if (k == 0 || !worse(docIDs[0], scores[0], docID, score))
+			return false;
+		docIDs[0] = docID;
+		scores[0] = score;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 *  Returns the kept documents as a PostingsList in descending score
+	 *  order. The entries carry no positions. This empties the heap.
+	 */
+	public PostingsList toPostingsList() {
+		int n = size;
+		int[] ids = new int[n];
+		double[] sc = new double[n];
+		// Pop the worst document into the last free slot
+		for (int i = n - 1; i >= 0; i--) {
+			ids[i] = docIDs[0];
+			sc[i] = scores[0];
+			size--;
+			docIDs[0] = docIDs[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+		PostingsList result = new PostingsList();
+		for (int i = 0; i < n; i++) {
+			result.addDocument(ids[i]);
+			result.setScore(i, sc[i]);
+		}
+		result.totalMatches = offered;
+		return result;
+	}
+
+	/** True if document (d1, s1) ranks below document (d2, s2). */
+	private static boolean worse(int d1, double s1, int d2, double s2) {
+		return s1 < s2 || (s1 == s2 && d1 > d2);
+	}
+
+	private void siftUp(int i) {
+		int d = docIDs[i];
+		double s = scores[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(d, s, docIDs[parent], scores[parent]))
+				break;
+			docIDs[i] = docIDs[parent];
+			scores[i] = scores[parent];
+			i = parent;
+		}
+		docIDs[i] = d;
+		scores[i] = s;
+	}
+
+	private void siftDown(int i) {
+		if (size == 0)
+			return;
+		int d = docIDs[i];
+		double s = scores[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && worse(docIDs[child + 1], scores[child + 1], docIDs[child], scores[child]))
+				child++;
+			if (!worse(docIDs[child], scores[child], d, s))
+				break;
+			docIDs[i] = docIDs[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		docIDs[i] = d;
+		scores[i] = s;
+	}
+}
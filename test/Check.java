@@ -0,0 +1,69 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ *   Checks and test data for the tests in this directory. A test is a
+ *   class with a main method, which the test target of build.xml runs.
+ *   A failed check throws an AssertionError, so the test exits with an
+ *   error.
+ */
+public class Check {
+
+	/** Fails with message unless condition holds. */
+	static void that(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/** Fails unless actual equals expected. */
+	static void equal(Object expected, Object actual, String what) {
+		if (expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+	}
+
+	/** The entries of list, as a map from docID to positions. */
+	static TreeMap<Integer, List<Integer>> entries(PostingsList list) {
+		TreeMap<Integer, List<Integer>> m = new TreeMap<Integer, List<Integer>>();
+		for (int i = 0; i < list.size(); i++) {
+			List<Integer> positions = new ArrayList<Integer>();
+			for (int j = 0; j < list.getFrequency(i); j++)
+				positions.add(list.getPosition(i, j));
+			m.put(list.getDocID(i), positions);
+		}
+		return m;
+	}
+
+	/** A list with the entries of m. */
+	static PostingsList list(TreeMap<Integer, List<Integer>> m) {
+		PostingsList list = new PostingsList();
+		for (Integer docID : m.keySet()) {
+			for (int p : m.get(docID))
+				list.add(docID, p);
+		}
+		return list;
+	}
+
+	/**
+	 *  Random entries: about size documents below maxDocID, each with
+	 *  up to maxFreq distinct positions below maxPosition.
+	 */
+	static TreeMap<Integer, List<Integer>> randomEntries(Random random, int size, int maxDocID, int maxFreq, int maxPosition) {
+		TreeMap<Integer, List<Integer>> m = new TreeMap<Integer, List<Integer>>();
+		for (int i = 0; i < size; i++) {
+			TreeSet<Integer> positions = new TreeSet<Integer>();
+			int freq = 1 + random.nextInt(maxFreq);
+			for (int j = 0; j < freq; j++)
+				positions.add(random.nextInt(maxPosition));
+			m.put(random.nextInt(maxDocID), new ArrayList<Integer>(positions));
+		}
+		return m;
+	}
+}
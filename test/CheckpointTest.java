@@ -0,0 +1,98 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ *   Tests that an index resumed from a checkpoint, and then given the
+ *   rest of the documents, has the same postings as an index that was
+ *   given all documents in one go. The indexing that the stopped run
+ *   did after the checkpoint is lost, and has to be done again.
+ */
+public class CheckpointTest {
+
+	private static final int NUM_DOCS = 300;
+	private static final int NUM_TERMS = 50;
+
+	/** Number of documents in the checkpoint, and indexed after it before the run stops. */
+	private static final int CHECKPOINTED = 120;
+	private static final int LOST = 40;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(19);
+		String[][] texts = new String[NUM_DOCS][];
+		for (int docID = 0; docID < NUM_DOCS; docID++) {
+			texts[docID] = new String[1 + random.nextInt(200)];
+			for (int i = 0; i < texts[docID].length; i++)
+				texts[docID][i] = "t" + (int) (NUM_TERMS * Math.pow(random.nextDouble(), 2));
+		}
+
+		String[] kinds = { "lists", "compressed", "offheap", "block", "segment" };
+		for (String kind : kinds) {
+			File file = new File(kind + ".checkpoint");
+			Index reference = create(kind, "reference");
+			index(reference, texts, 0, NUM_DOCS);
+			reference.finishIndexing();
+
+			Index stopped = create(kind, "stopped");
+			index(stopped, texts, 0, CHECKPOINTED);
+			Checkpoint.save(stopped, file);
+			index(stopped, texts, CHECKPOINTED, CHECKPOINTED + LOST);
+			// A later checkpoint to another file, so that the stopped run
+			// has written files that are not in the first one
+			Checkpoint.save(stopped, new File(kind + ".later"));
+
+			Index resumed = create(kind, "resumed");
+			Check.that(Checkpoint.load(resumed, file), kind + ": checkpoint restored");
+			index(resumed, texts, CHECKPOINTED, NUM_DOCS);
+			resumed.finishIndexing();
+
+			for (int t = 0; t < NUM_TERMS + 2; t++) {
+				String term = "t" + t;
+				Check.equal(entries(reference.getPostings(term)), entries(resumed.getPostings(term)), kind + ": postings of " + term);
+			}
+		}
+
+		Check.that(!Checkpoint.load(new HashedIndex(), new File("none.checkpoint")), "no checkpoint to restore");
+		try {
+			Checkpoint.load(new SegmentIndex("other"), new File("lists.checkpoint"));
+			Check.that(false, "a checkpoint of another kind of index restored");
+		} catch (IOException e) {
+			// As it should be
+		}
+
+		System.out.println("CheckpointTest passed");
+	}
+
+	/** Creates an index of the given kind. */
+	private static Index create(String kind, String name) {
+		if (kind.equals("compressed"))
+			return new HashedIndex(HashedIndex.COMPRESSED);
+		if (kind.equals("offheap"))
+			return new HashedIndex(HashedIndex.OFF_HEAP);
+		if (kind.equals("block"))
+			// Little enough memory that the postings are written in several runs
+			return new BlockIndex(kind + "-" + name, 20000);
+		if (kind.equals("segment"))
+			return new SegmentIndex(kind + "-" + name);
+		return new HashedIndex();
+	}
+
+	/** Indexes documents from..to of texts, as Indexer does. */
+	private static void index(Index index, String[][] texts, int from, int to) {
+		for (int docID = from; docID < to; docID++) {
+			Index.docs.add(docID, "doc" + docID);
+			for (int offset = 0; offset < texts[docID].length; offset++)
+				index.insert(texts[docID][offset], docID, offset);
+			Index.docs.setLength(docID, texts[docID].length);
+		}
+	}
+
+	private static Object entries(PostingsList list) {
+		return (list == null) ? null : Check.entries(list);
+	}
+}
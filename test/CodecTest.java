@@ -0,0 +1,212 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *   Tests that postings lists come back unchanged from PostingsCodec,
+ *   whether decoded whole or read through cursors, from compressed
+ *   postings that are added to while they are read, and from segments
+ *   and a SegmentIndex with several of them.
+ */
+public class CodecTest {
+
+	private static final int MAX_DOCID = 5000;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(21);
+		for (int docID = 0; docID < MAX_DOCID; docID++) {
+			Index.docs.add(docID, "doc" + docID);
+			Index.docs.setLength(docID, 1 + random.nextInt(1000));
+		}
+
+		for (int round = 0; round < 300; round++) {
+			// Up to several blocks, with gaps and positions of several bytes
+			TreeMap<Integer, List<Integer>> entries = Check.randomEntries(random, random.nextInt(4 * PostingsCodec.BLOCK_SIZE), MAX_DOCID, 8, 100000);
+			PostingsList list = Check.list(entries);
+			encodeDecode(list, entries, random);
+			cursor(list, entries, random);
+			compressed(entries, random);
+		}
+		segments(random);
+		segmentIndex(random);
+
+		System.out.println("CodecTest passed");
+	}
+
+	/** Decodes list from where it was encoded after other bytes. */
+	private static void encodeDecode(PostingsList list, TreeMap<Integer, List<Integer>> entries, Random random) {
+		PostingsCodec.Output out = new PostingsCodec.Output(1);
+		int offset = random.nextInt(20);
+		out.skip(offset);
+		PostingsCodec.encode(list, null, out);
+		Check.equal(entries, Check.entries(PostingsCodec.decode(ByteBuffer.wrap(out.bytes, 0, out.size), offset)), "decoded list");
+
+		byte[] bytes = PostingsCodec.encode(list, null);
+		Check.equal(entries, Check.entries(PostingsCodec.decode(ByteBuffer.wrap(bytes), 0)), "decoded list");
+
+		// Deleted documents are left out
+		DocumentTable docs = new DocumentTable();
+		TreeMap<Integer, List<Integer>> live = new TreeMap<Integer, List<Integer>>();
+		for (Integer docID : entries.keySet()) {
+			docs.add(docID, "doc" + docID);
+			if (random.nextInt(3) == 0)
+				docs.delete(docID);
+			else
+				live.put(docID, entries.get(docID));
+		}
+		bytes = PostingsCodec.encode(list, docs);
+		Check.equal(live, Check.entries(PostingsCodec.decode(ByteBuffer.wrap(bytes), 0)), "decoded list without deleted documents");
+	}
+
+	/**
+	 *  Walks a cursor over the encoded list with next() and advance(),
+	 *  taking the entries of some of the documents it stops at.
+	 */
+	private static void cursor(PostingsList list, TreeMap<Integer, List<Integer>> entries, Random random) {
+		ByteBuffer buf = ByteBuffer.wrap(PostingsCodec.encode(list, null));
+		PostingsCodec.Input in = new PostingsCodec.Input(buf, 0);
+		int size = in.readVInt();
+		int last = (size == 0) ? 0 : entries.lastKey();
+		PostingsCursor c = new PostingsCodec.Cursor(buf, in.pos, size, last);
+		Check.equal(entries.size(), c.size(), "cursor size");
+		Check.equal(PostingsCursor.maxTfNorm(list.cursor()), c.maxTfNorm(), "cursor bound");
+
+		TreeMap<Integer, List<Integer>> taken = new TreeMap<Integer, List<Integer>>();
+		PostingsList added = new PostingsList();
+		Integer expected = entries.isEmpty() ? null : entries.firstKey();
+		while (expected != null) {
+			Check.that(c.valid(), "cursor before the end");
+			int docID = c.docID();
+			Check.equal(expected, docID, "cursor docID");
+			Check.equal(entries.get(docID).size(), c.freq(), "cursor frequency");
+			if (random.nextInt(3) == 0) {
+				c.addTo(added);
+				taken.put(docID, entries.get(docID));
+			}
+			if (random.nextBoolean()) {
+				c.next();
+				expected = entries.higherKey(docID);
+			} else {
+				int target = docID + 1 + random.nextInt(random.nextBoolean() ? 10 : 2000);
+				c.advance(target);
+				expected = entries.ceilingKey(target);
+			}
+		}
+		Check.that(!c.valid(), "cursor at the end");
+		Check.equal(taken, Check.entries(added), "entries taken from the cursor");
+	}
+
+	/**
+	 *  Adds the entries to CompressedPostings a few at a time, reading
+	 *  them back in between, which encodes and reopens the last block.
+	 */
+	private static void compressed(TreeMap<Integer, List<Integer>> entries, Random random) {
+		CompressedPostings postings = new CompressedPostings();
+		TreeMap<Integer, List<Integer>> added = new TreeMap<Integer, List<Integer>>();
+		for (Integer docID : entries.keySet()) {
+			for (Integer position : entries.get(docID))
+				postings.add(docID, position);
+			added.put(docID, entries.get(docID));
+			if (random.nextInt(20) == 0) {
+				Check.equal(added, Check.entries(postings.decode()), "compressed postings");
+				PostingsList walked = new PostingsList();
+				for (PostingsCursor c = postings.cursor(); c.valid(); c.next())
+					c.addTo(walked);
+				Check.equal(added, Check.entries(walked), "compressed postings through a cursor");
+			}
+		}
+		Check.equal(entries.size(), postings.size(), "compressed postings size");
+		Check.equal(entries, Check.entries(postings.decode()), "compressed postings");
+	}
+
+	/** Writes a segment and reads it back, term by term and through cursors. */
+	private static void segments(Random random) throws IOException {
+		File dir = new File("segments");
+		dir.mkdirs();
+		TreeMap<String, TreeMap<Integer, List<Integer>>> terms = new TreeMap<String, TreeMap<Integer, List<Integer>>>();
+		for (int t = 0; t < 200; t++)
+			terms.put("term" + random.nextInt(1000), Check.randomEntries(random, 1 + random.nextInt(300), MAX_DOCID, 5, 1000));
+		// Terms that sort differently as UTF-8 bytes and as UTF-16 chars
+		terms.put("￯", Check.randomEntries(random, 3, MAX_DOCID, 2, 10));
+		terms.put("😀", Check.randomEntries(random, 3, MAX_DOCID, 2, 10));
+
+		Segment.Writer writer = new Segment.Writer(dir, "test");
+		for (String term : terms.keySet())
+			writer.add(term, Check.list(terms.get(term)), null);
+		Segment segment = writer.close();
+
+		Check.equal(terms.size(), segment.size(), "terms in the segment");
+		int i = 0;
+		for (String term : terms.keySet()) {
+			PostingsList expected = Check.list(terms.get(term));
+			Check.equal(term, segment.term(i), "term " + i);
+			Check.equal(i, segment.find(term), "number of " + term);
+			Check.equal(terms.get(term), Check.entries(segment.postings(term)), "postings of " + term);
+			Check.equal(expected.maxTfNorm(), segment.maxTfNorm(i), "bound of " + term);
+
+			PostingsCursor c = segment.cursor(i);
+			Check.equal(expected.getDocID(expected.size() - 1), c.lastDocID(), "last docID of " + term);
+			Check.equal(expected.maxTfNorm(), c.maxTfNorm(), "cursor bound of " + term);
+			PostingsList walked = new PostingsList();
+			for (; c.valid(); c.next())
+				c.addTo(walked);
+			Check.equal(terms.get(term), Check.entries(walked), "postings of " + term + " through a cursor");
+			i++;
+		}
+		Check.that(segment.find("term") < 0 && segment.postings("zzz") == null, "terms not in the segment");
+	}
+
+	/**
+	 *  Reads postings that are split over several segments of a
+	 *  SegmentIndex, through the cursor that chains them.
+	 */
+	private static void segmentIndex(Random random) {
+		SegmentIndex index = new SegmentIndex("chained");
+		HashedIndex reference = new HashedIndex();
+		int docID = 0;
+		for (int segment = 0; segment < 3; segment++) {
+			for (int d = 0; d < 100; d++, docID += 1 + random.nextInt(10)) {
+				for (int offset = 0; offset < 50; offset++) {
+					String term = "t" + random.nextInt(20);
+					index.insert(term, docID, offset);
+					reference.insert(term, docID, offset);
+				}
+			}
+			index.finishIndexing();
+		}
+
+		for (int t = 0; t < 20; t++) {
+			String term = "t" + t;
+			PostingsList expected = reference.getPostings(term);
+			PostingsCursor c = PostingsCursor.of(index, term);
+			Check.equal(expected.size(), c.size(), "size of " + term);
+			Check.equal(expected.getDocID(expected.size() - 1), c.lastDocID(), "last docID of " + term);
+			Check.equal(expected.maxTfNorm(), c.maxTfNorm(), "bound of " + term);
+			TreeMap<Integer, List<Integer>> entries = Check.entries(expected);
+			for (int target = random.nextInt(20); ; target = c.docID() + 1 + random.nextInt(20)) {
+				c.advance(target);
+				Integer next = entries.ceilingKey(target);
+				if (next == null) {
+					Check.that(!c.valid(), "chained cursor at the end");
+					break;
+				}
+				Check.that(c.valid(), "chained cursor before the end");
+				Check.equal(next, c.docID(), "docID of " + term + " after advance(" + target + ")");
+			}
+
+			PostingsList walked = new PostingsList();
+			for (c = PostingsCursor.of(index, term); c.valid(); c.next())
+				c.addTo(walked);
+			Check.equal(Check.entries(expected), Check.entries(walked), "postings of " + term + " through the chained cursor");
+			Check.equal(Check.entries(expected), Check.entries(index.getPostings(term)), "postings of " + term);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *   Tests PostingsList.advance, which gallops through a list, and the
+ *   intersection that uses it, against a linear scan.
+ */
+public class IntersectTest {
+
+	public static void main(String[] args) {
+		Random random = new Random(3);
+		for (int round = 0; round < 200; round++) {
+			int size = random.nextInt(round + 1);
+			PostingsList list = Check.list(Check.randomEntries(random, size, 4 * size + 1, 1, 10));
+			advance(list, random);
+			cursorAdvance(list, random);
+		}
+		for (int round = 0; round < 500; round++) {
+			// Lists of very different lengths, where galloping skips far
+			int n1 = random.nextInt(2000), n2 = random.nextInt(20);
+			TreeMap<Integer, List<Integer>> a = Check.randomEntries(random, n1, 5000, 3, 100);
+			TreeMap<Integer, List<Integer>> b = Check.randomEntries(random, n2, 5000, 3, 100);
+			intersect(a, b);
+			intersect(b, a);
+		}
+		System.out.println("IntersectTest passed");
+	}
+
+	/** advance(from, target) finds the first entry from from with a docID of at least target. */
+	private static void advance(PostingsList list, Random random) {
+		int n = list.size();
+		int max = (n == 0) ? 10 : list.getDocID(n - 1) + 2;
+		for (int k = 0; k < 50; k++) {
+			int from = random.nextInt(n + 1);
+			int target = random.nextInt(max);
+			int expected = from;
+			while (expected < n && list.getDocID(expected) < target)
+				expected++;
+			Check.equal(expected, list.advance(from, target), "advance(" + from + ", " + target + ") in " + n + " entries");
+		}
+	}
+
+	/** A cursor advanced to a series of increasing targets stops at the same entries. */
+	private static void cursorAdvance(PostingsList list, Random random) {
+		PostingsCursor c = list.cursor();
+		int i = 0;
+		int target = 0;
+		while (c.valid()) {
+			target += random.nextInt(8);
+			c.advance(target);
+			i = list.advance(i, target);
+			Check.equal(i < list.size(), c.valid(), "cursor valid after advance(" + target + ")");
+			if (c.valid())
+				Check.equal(list.getDocID(i), c.docID(), "cursor docID after advance(" + target + ")");
+		}
+	}
+
+	/** The intersection has the documents of both, with the entries of the first. */
+	private static void intersect(TreeMap<Integer, List<Integer>> a, TreeMap<Integer, List<Integer>> b) {
+		TreeMap<Integer, List<Integer>> expected = new TreeMap<Integer, List<Integer>>(a);
+		expected.keySet().retainAll(b.keySet());
+		PostingsList result = Check.list(a).intersect(Check.list(b));
+		Check.equal(expected, Check.entries(result), "intersection of " + a.size() + " and " + b.size() + " entries");
+	}
+}
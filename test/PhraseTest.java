@@ -0,0 +1,81 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *   Tests PostingsList.phrase against checking every start position of
+ *   every document, with and without deleted documents.
+ */
+public class PhraseTest {
+
+	private static final int MAX_DOCID = 100;
+
+	public static void main(String[] args) {
+		Random random = new Random(6);
+		DocumentTable docs = new DocumentTable();
+		for (int d = 0; d < MAX_DOCID; d++) {
+			docs.add(d, "doc" + d);
+			if (random.nextInt(4) == 0)
+				docs.delete(d);
+		}
+
+		for (int round = 0; round < 2000; round++) {
+			int n = 1 + random.nextInt(4);
+			List<TreeMap<Integer, List<Integer>>> entries = new ArrayList<TreeMap<Integer, List<Integer>>>();
+			PostingsList[] lists = new PostingsList[n];
+			for (int t = 0; t < n; t++) {
+				if (t > 0 && random.nextInt(5) == 0) {
+					// The same term again, as in "to be or not to be"
+					int same = random.nextInt(t);
+					entries.add(entries.get(same));
+					lists[t] = lists[same];
+				} else {
+					// Few documents and positions, so that phrases are common
+					entries.add(Check.randomEntries(random, random.nextInt(60), MAX_DOCID, 6, 20));
+					lists[t] = Check.list(entries.get(t));
+				}
+			}
+			TreeMap<Integer, List<Integer>> expected = phrase(entries);
+			Check.equal(expected, Check.entries(PostingsList.phrase(lists)), "phrase of " + n + " terms");
+
+			for (int d = 0; d < MAX_DOCID; d++) {
+				if (docs.isDeleted(d))
+					expected.remove(d);
+			}
+			Check.equal(expected, Check.entries(PostingsList.phrase(lists, docs)), "phrase of " + n + " terms without deleted documents");
+		}
+
+		Check.equal(new TreeMap<Integer, List<Integer>>(), Check.entries(PostingsList.phrase(new PostingsList[0])), "phrase of no terms");
+
+		System.out.println("PhraseTest passed");
+	}
+
+	/**
+	 *  Finds the documents where term t occurs at s + t for some start s,
+	 *  for all terms, with those starts.
+	 */
+	private static TreeMap<Integer, List<Integer>> phrase(List<TreeMap<Integer, List<Integer>>> terms) {
+		TreeMap<Integer, List<Integer>> result = new TreeMap<Integer, List<Integer>>();
+		for (Integer docID : terms.get(0).keySet()) {
+			List<Integer> starts = new ArrayList<Integer>();
+			for (Integer s : terms.get(0).get(docID)) {
+				boolean match = true;
+				for (int t = 1; t < terms.size() && match; t++) {
+					List<Integer> positions = terms.get(t).get(docID);
+					match = positions != null && positions.contains(s + t);
+				}
+				if (match)
+					starts.add(s);
+			}
+			if (!starts.isEmpty())
+				result.put(docID, starts);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,130 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *   Tests SimpleTokenizer on readers that return few characters at a
+ *   time, tokens at the end of the input, tokens longer than the buffer
+ *   and characters that are removed from tokens.
+ */
+public class TokenizerTest {
+
+	/** Characters of the random texts: letters, delimiters and special characters. */
+	private static final String ALPHABET = "abcXYZ019  \n.,-'éÅöÃÃÉ";
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(17);
+
+		check("hello world", List.of("hello", "world"), "a token at the end of the input");
+		check("  Hello, World!  ", List.of("hello", "world"), "delimiters at both ends");
+		check("", List.of(), "no input");
+		check(" .,- ", List.of(), "only delimiters");
+		check("áÅéger", List.of("aåeger"), "translated characters");
+		check("aÃb Ã ÃÃ cÃ", List.of("ab", "c"), "removed characters");
+		check("Ã", List.of(), "a token of only removed characters at the end");
+
+		char[] longToken = new char[3 * SimpleTokenizer.BUFFER_LENGTH + 7];
+		Arrays.fill(longToken, 'x');
+		String x = new String(longToken);
+		check(x, List.of(x), "a token longer than the buffer at the end");
+		check("a " + x + " b " + x, List.of("a", x, "b", x), "tokens longer than the buffer");
+
+		for (int round = 0; round < 300; round++) {
+			StringBuilder text = new StringBuilder();
+			int length = random.nextInt(3 * SimpleTokenizer.BUFFER_LENGTH);
+			for (int i = 0; i < length; i++)
+				text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			check(text.toString(), tokens(text.toString()), "random text");
+		}
+
+		System.out.println("TokenizerTest passed");
+	}
+
+	/**
+	 *  Checks that text is split into expected, when it is read all at
+	 *  once and a few characters at a time, through both ways of reading
+	 *  tokens.
+	 */
+	private static void check(String text, List<String> expected, String what) throws IOException {
+		Check.equal(expected, nextTokens(new SimpleTokenizer(new StringReader(text))), what);
+		Check.equal(expected, nextTokens(new SimpleTokenizer(new ShortReader(text, 1))), what + ", one character at a time");
+		Check.equal(expected, nextTokens(new SimpleTokenizer(new ShortReader(text, 7))), what + ", seven characters at a time");
+
+		SimpleTokenizer tok = new SimpleTokenizer(new ShortReader(text, 3));
+		List<String> tokens = new ArrayList<String>();
+		while (tok.next()) {
+			CharSequence token = tok.token();
+			Check.equal(token.toString().hashCode(), token.hashCode(), what + ": hash code of " + token);
+			tokens.add(token.toString());
+		}
+		Check.equal(expected, tokens, what + ", through next()");
+	}
+
+	private static List<String> nextTokens(SimpleTokenizer tok) throws IOException {
+		List<String> tokens = new ArrayList<String>();
+		while (tok.hasMoreTokens())
+			tokens.add(tok.nextToken());
+		Check.that(tok.nextToken() == null, "nextToken() after the last token");
+		return tokens;
+	}
+
+	/**
+	 *  Splits text at the characters that cannot be in tokens, and
+	 *  removes '#' (what some special characters are translated into)
+	 *  from the tokens, leaving out tokens that become empty.
+	 */
+	private static List<String> tokens(String text) {
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder token = new StringBuilder();
+		char[] c = new char[1];
+		for (int i = 0; i <= text.length(); i++) {
+			c[0] = (i < text.length()) ? text.charAt(i) : ' ';
+			if (SimpleTokenizer.normalize(c, 0)) {
+				if (c[0] != '#')
+					token.append(c[0]);
+			} else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		return tokens;
+	}
+
+
+	/* ----------------------------------------------- */
+
+
+	/** A reader that returns at most max characters, and often fewer, per read. */
+	private static class ShortReader extends Reader {
+		private final String text;
+		private final int max;
+		private int pos = 0;
+		private int reads = 0;
+
+		ShortReader(String text, int max) {
+			this.text = text;
+			this.max = max;
+		}
+
+		public int read(char[] cbuf, int off, int len) {
+			if (pos == text.length())
+				return -1;
+			int n = Math.min(len, Math.min(text.length() - pos, 1 + reads++ % max));
+			text.getChars(pos, pos + n, cbuf, off);
+			pos += n;
+			return n;
+		}
+
+		public void close() {
+		}
+	}
+}
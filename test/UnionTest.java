@@ -0,0 +1,79 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ *   Tests the k-way union of PostingsList against merging the entries
+ *   in maps, with and without deleted documents.
+ */
+public class UnionTest {
+
+	private static final int MAX_DOCID = 300;
+
+	public static void main(String[] args) {
+		Random random = new Random(5);
+		DocumentTable docs = new DocumentTable();
+		for (int d = 0; d < MAX_DOCID; d++) {
+			docs.add(d, "doc" + d);
+			if (random.nextInt(4) == 0)
+				docs.delete(d);
+		}
+
+		for (int round = 0; round < 500; round++) {
+			int k = random.nextInt(9);
+			List<TreeMap<Integer, List<Integer>>> entries = new ArrayList<TreeMap<Integer, List<Integer>>>();
+			PostingsList[] lists = new PostingsList[k];
+			for (int l = 0; l < k; l++) {
+				entries.add(Check.randomEntries(random, random.nextInt(100), MAX_DOCID, 4, 50));
+				lists[l] = Check.list(entries.get(l));
+			}
+			TreeMap<Integer, List<Integer>> expected = union(entries);
+			Check.equal(expected, Check.entries(PostingsList.union(lists)), "union of " + k + " lists");
+			if (k == 2)
+				Check.equal(expected, Check.entries(lists[0].unionWith(lists[1])), "unionWith");
+
+			for (int d = 0; d < MAX_DOCID; d++) {
+				if (docs.isDeleted(d))
+					expected.remove(d);
+			}
+			Check.equal(expected, Check.entries(PostingsList.union(lists, docs)), "union of " + k + " lists without deleted documents");
+		}
+
+		// Entries added out of docID order are sorted before the merge
+		PostingsList a = new PostingsList();
+		a.add(7, 1);
+		a.add(3, 2);
+		PostingsList b = new PostingsList();
+		b.add(3, 0);
+		b.add(3, 2);
+		TreeMap<Integer, List<Integer>> expected = new TreeMap<Integer, List<Integer>>();
+		expected.put(3, List.of(0, 2));
+		expected.put(7, List.of(1));
+		Check.equal(expected, Check.entries(a.unionWith(b)), "union of an unsorted list");
+
+		System.out.println("UnionTest passed");
+	}
+
+	/** Merges the entries of maps, with the distinct positions of each document. */
+	private static TreeMap<Integer, List<Integer>> union(List<TreeMap<Integer, List<Integer>>> maps) {
+		TreeMap<Integer, TreeSet<Integer>> merged = new TreeMap<Integer, TreeSet<Integer>>();
+		for (TreeMap<Integer, List<Integer>> m : maps) {
+			for (Integer docID : m.keySet()) {
+				if (!merged.containsKey(docID))
+					merged.put(docID, new TreeSet<Integer>());
+				merged.get(docID).addAll(m.get(docID));
+			}
+		}
+		TreeMap<Integer, List<Integer>> result = new TreeMap<Integer, List<Integer>>();
+		for (Integer docID : merged.keySet())
+			result.put(docID, new ArrayList<Integer>(merged.get(docID)));
+		return result;
+	}
+}
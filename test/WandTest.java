@@ -0,0 +1,83 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *   Tests that the top k documents that RankedSearch finds with WAND,
+ *   using the score bounds each kind of index stores, have the same
+ *   scores as the top k of scoring every posting.
+ */
+public class WandTest {
+
+	private static final int NUM_DOCS = 400;
+	private static final int NUM_TERMS = 40;
+
+	public static void main(String[] args) {
+		Random random = new Random(8);
+		Index[] indexes = {
+			new HashedIndex(HashedIndex.LISTS),
+			new HashedIndex(HashedIndex.COMPRESSED),
+			new HashedIndex(HashedIndex.OFF_HEAP),
+			new SegmentIndex()
+		};
+		for (int docID = 0; docID < NUM_DOCS; docID++) {
+			// Skewed term frequencies and document lengths, as in text
+			int length = 1 + random.nextInt(1 + random.nextInt(300));
+			Index.docs.add(docID, "doc" + docID);
+			Index.docs.setLength(docID, length);
+			for (int offset = 0; offset < length; offset++) {
+				String term = "t" + (int) (NUM_TERMS * Math.pow(random.nextDouble(), 3));
+				for (Index index : indexes)
+					index.insert(term, docID, offset);
+			}
+		}
+		for (Index index : indexes)
+			index.finishIndexing();
+
+		for (int round = 0; round < 2; round++) {
+			for (Index index : indexes) {
+				for (int q = 0; q < 200; q++) {
+					List<String> query = new ArrayList<String>();
+					int n = 1 + random.nextInt(4);
+					for (int i = 0; i < n; i++)
+						query.add("t" + random.nextInt(NUM_TERMS + 2));
+					int k = 1 + random.nextInt(20);
+					compare(index, query, k);
+				}
+			}
+			// Once more with some documents deleted
+			for (int docID = 0; docID < NUM_DOCS; docID += 1 + random.nextInt(10))
+				Index.docs.delete(docID);
+		}
+		System.out.println("WandTest passed");
+	}
+
+	/** Compares the top k for query with the top of scoring all postings. */
+	private static void compare(Index index, List<String> query, int k) {
+		String what = index.getClass().getName() + " " + query + " top " + k;
+		PostingsList top = RankedSearch.search(index, null, query, k);
+		PostingsList all = RankedSearch.search(index, null, query, Integer.MAX_VALUE);
+		HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+		for (int i = 0; i < all.size(); i++)
+			scores.put(all.getDocID(i), all.getScore(i));
+
+		Check.equal(Math.min(k, all.size()), top.size(), what + ": number of documents");
+		for (int i = 0; i < top.size(); i++) {
+			// Documents with equal scores may come in any order, so
+			// compare the scores at each rank
+			Check.that(close(all.getScore(i), top.getScore(i)), what + ": score at rank " + i);
+			Double score = scores.get(top.getDocID(i));
+			Check.that(score != null && close(score, top.getScore(i)), what + ": score of " + top.getDocID(i));
+		}
+	}
+
+	private static boolean close(double a, double b) {
+		return Math.abs(a - b) <= 1e-9 * Math.max(Math.abs(a), Math.abs(b));
+	}
+}